@@ -65,12 +65,15 @@ import androidx.core.view.WindowCompat;
 import androidx.core.widget.NestedScrollView;
 
 import com.abdurazaaqmohammed.AntiSplit.R;
+import com.abdurazaaqmohammed.utils.BufferPool;
 import com.abdurazaaqmohammed.utils.CompareUtils;
 import com.abdurazaaqmohammed.utils.DeviceSpecsUtil;
 import com.abdurazaaqmohammed.utils.InstallUtil;
 import com.abdurazaaqmohammed.utils.LanguageUtil;
 import com.abdurazaaqmohammed.utils.LegacyUtils;
 import com.abdurazaaqmohammed.utils.RunUtil;
+import com.abdurazaaqmohammed.utils.SplitListing;
+import com.abdurazaaqmohammed.utils.TaskScheduler;
 import com.fom.storage.media.AndroidXI;
 import com.google.android.material.button.MaterialButtonToggleGroup;
 import com.google.android.material.color.DynamicColors;
@@ -78,6 +81,8 @@ import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.google.android.material.textview.MaterialTextView;
+import com.reandroid.MergeCache;
+import com.reandroid.OutputVerifier;
 import com.reandroid.Merger;
 import com.reandroid.apk.ApkBundle;
 import com.reandroid.apkeditor.Util;
@@ -115,6 +120,8 @@ public class MainActivity extends AppCompatActivity {
     private String lastVerChecked;
     boolean logEnabled;
     private boolean force;
+    private int batchJobs;
+    private int mergeCacheMb;
     private String lang;
     private int theme;
     private int sortMode;
@@ -129,6 +136,14 @@ public class MainActivity extends AppCompatActivity {
         return rss;
     }
     private Handler handler;
+    private final TaskScheduler.Group tasks = new TaskScheduler.Group();
+
+    /**
+     * @return the background work of this activity, cancelled when it is destroyed
+     */
+    public TaskScheduler.Group getTasks() {
+        return tasks;
+    }
 
     public Handler getHandler() {
         return handler;
@@ -144,6 +159,7 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        BufferPool.setLeakDetection((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
         DynamicColors.applyToActivitiesIfAvailable(getApplication());
         handler = new Handler(Looper.getMainLooper());
 
@@ -171,7 +187,11 @@ public class MainActivity extends AppCompatActivity {
         NestedScrollView scrollView = findViewById(R.id.scrollView);
         logger = new MyAPKLogger(this, logField, scrollView);
 
-        RunUtil.runInBackground(() -> Util.deleteDir(getCacheDir()));
+        // Only what is there now, a merge may start and create its folder before this is done
+        final File[] staleCache = getCacheDir().listFiles();
+        if(staleCache != null) RunUtil.runInBackground(() -> {
+            for (File f : staleCache) if(f.isDirectory()) Util.deleteDir(f); else f.delete();
+        });
 
         if(aboveSdk20) {
             getWindow().addFlags(FLAG_DRAWS_SYSTEM_BAR_BACKGROUNDS);
@@ -191,10 +211,15 @@ public class MainActivity extends AppCompatActivity {
         if((checkForUpdates = settings.getBoolean("checkForUpdates", true))) checkForUpdates(false);
         signApk = settings.getBoolean("signApk", true);
         force = settings.getBoolean("force", false);
+        OutputVerifier.setEnabled(settings.getBoolean("verifyOutput", false));
         showDialog = settings.getBoolean("showDialog", false);
         selectSplitsForDevice = settings.getBoolean("selectSplitsForDevice", false);
         logEnabled = settings.getBoolean("logEnabled", true);
         saveMode = settings.getInt("saveMode", 0);
+        batchJobs = settings.getInt("batchJobs", 2);
+        mergeCacheMb = settings.getInt("mergeCacheMb", 1024);
+        MergeCache.setBudget(mergeCacheMb * 1024L * 1024);
+        RunUtil.runInBackground(() -> MergeCache.get(this).trim());
         systemTheme = settings.getBoolean("systemTheme", true);
         sortMode = settings.getInt("sortMode", 0);
         suffix = settings.getString("suffix", "_antisplit");
@@ -233,7 +258,8 @@ public class MainActivity extends AppCompatActivity {
             }
         }
         if (splitAPKUri != null) {
-            if(showDialog) showApkSelectionDialog();
+            if(canProcessAsBatch()) processBatch();
+            else if(showDialog) showApkSelectionDialog();
             else selectDirToSaveAPKOrSaveNow();
         }
     }
@@ -303,9 +329,12 @@ public class MainActivity extends AppCompatActivity {
         getSharedPreferences("set", Context.MODE_PRIVATE).edit()
             .putBoolean("logEnabled", logEnabled)
             .putInt("saveMode", saveMode)
+            .putInt("batchJobs", batchJobs)
+            .putInt("mergeCacheMb", mergeCacheMb)
             .putBoolean("showDialog", showDialog)
             .putBoolean("signApk", signApk)
             .putBoolean("force", force)
+            .putBoolean("verifyOutput", OutputVerifier.isEnabled())
             .putBoolean("systemTheme", systemTheme)
             .putBoolean("selectSplitsForDevice", selectSplitsForDevice)
             .putInt("theme", theme)
@@ -336,6 +365,7 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
+        tasks.cancelAll();
         Util.deleteDir(getCacheDir());
         cleanupAppFolder();
         super.onDestroy();
@@ -347,11 +377,16 @@ public class MainActivity extends AppCompatActivity {
 
         final boolean urisAreSplitApks = MainActivity.this.urisAreSplitApks;
         final Uri splitAPKUri = MainActivity.this.splitAPKUri;
+        // Only meant for this bundle, the next one gets its own from the split selection
+        final SplitListing shownListing = MainActivity.this.splitListing;
+        MainActivity.this.splitListing = null;
         new RunUtil(handler, this, null).runInBackground(() -> {
             errorOccurred = false; // reset to make sure success message shows
+            signedApk = null;
             final File cacheDir = MainActivity.this.getCacheDir();
             //if (cacheDir != null && MainActivity.this.urisAreSplitApks) Util.deleteDir(cacheDir); // Now that using different folder for each app, no need to clear the whole cache dir
             try {
+                Merger.Result result = null;
                 if (TextUtils.isEmpty(pkgName)) {
                     //selected from anything except app list
                     File folder = new File(cacheDir, UUID.randomUUID().toString());
@@ -364,19 +399,33 @@ public class MainActivity extends AppCompatActivity {
                         }
                     }
 
-                    com.reandroid.Merger.run(
+                    SplitListing listing = urisAreSplitApks && shownListing == null && selectSplitsForDevice ? deviceSpecsUtil.listSplits(splitAPKUri) : shownListing;
+                    result = com.reandroid.Merger.run(
                         urisAreSplitApks ? splitAPKUri : null,
                         folder,
                         outputUri,
                         MainActivity.this,
-                        urisAreSplitApks ? selectSplitsForDevice ? deviceSpecsUtil.getSplitsForDevice(splitAPKUri) : MainActivity.this.splitsToUse : null,
+                        urisAreSplitApks ? selectSplitsForDevice ? deviceSpecsUtil.getSplitsForDevice(listing) : MainActivity.this.splitsToUse : null,
+                        urisAreSplitApks ? listing : null,
                         signApk, MainActivity.this.force);
                 } else try (ApkBundle bundle = new ApkBundle()) {
                     // Selected from apps list
-                    bundle.loadApkDirectory(new File(MainActivity.this.getPackageManager().getPackageInfo(pkgName, 0).applicationInfo.sourceDir).getParentFile());
-                    com.reandroid.Merger.run(bundle, cacheDir, outputUri, MainActivity.this, signApk, MainActivity.this.force);
+                    File appDir = new File(MainActivity.this.getPackageManager().getPackageInfo(pkgName, 0).applicationInfo.sourceDir).getParentFile();
+                    String cacheKey = MergeCache.keyOf(appDir, signApk, MainActivity.this.force, MainActivity.this);
+                    if (cacheKey == null || !MergeCache.get(MainActivity.this).copyTo(cacheKey, outputUri, MainActivity.this)) {
+                        bundle.loadApkDirectory(appDir);
+                        result = com.reandroid.Merger.run(bundle, appDir, cacheDir, outputUri, MainActivity.this, signApk, MainActivity.this.force, cacheKey);
+                    } else if (signApk) signedApk = outputUri;
                 }
+                if (result != null) signedApk = result.getSignedApk();
+                OutputVerifier.Report report = result == null ? null : result.getReport();
                 toggleAnimation(false);
+                if (report != null && !report.isPassed()) {
+                    // Same as a failed job in the batch summary, the output is there but broken or its check was interrupted
+                    errorOccurred = true;
+                    showError(report.toString());
+                    return false;
+                }
                 return true;
             } catch (Exception e) {
                 MainActivity.this.showError(e);
@@ -468,7 +517,8 @@ public class MainActivity extends AppCompatActivity {
 //                        else
                             uris.add(uri);
                     }
-                   if (urisAreSplitApks) processOneSplitApkUri(first);
+                   if (canProcessAsBatch()) processBatch();
+                   else if (urisAreSplitApks) processOneSplitApkUri(first);
                    else selectDirToSaveAPKOrSaveNow();
                 }
                 break;
@@ -519,7 +569,7 @@ public class MainActivity extends AppCompatActivity {
     };
 
     private void checkForUpdates(boolean toast) {
-        new Thread(() -> {
+        tasks.submitIo(() -> {
             try {
                 HttpURLConnection conn = (HttpURLConnection) new URL("https://api.github.com/repos/AbdurazaaqMohammed/AntiSplit-M/releases").openConnection();
                 conn.setRequestMethod("GET");
@@ -610,14 +660,15 @@ public class MainActivity extends AppCompatActivity {
               //ra  showError(e);
                 if (toast) runOnUiThread(() -> Toast.makeText(MainActivity.this, "Failed to check for update", Toast.LENGTH_SHORT).show());
             }
-        }).start();
+        });
     }
 
     private Runnable checkUpdateAfterStoragePermission;
 
     public void showApkSelectionDialog() {
         try {
-            List<String> splits = deviceSpecsUtil.getListOfSplits(splitAPKUri);
+            SplitListing listing = deviceSpecsUtil.listSplits(splitAPKUri);
+            List<String> splits = listing.getSplits();
             Collections.sort(splits, CompareUtils::compareByName);
             final int initialSize = splits.size();
             String[] apkNames = new String[initialSize + 5];
@@ -718,6 +769,7 @@ public class MainActivity extends AppCompatActivity {
                     showError(rss.getString(R.string.nothing));
                 } else {
                     splitsToUse = splits;
+                    splitListing = listing;
                     selectDirToSaveAPKOrSaveNow();
                 }
             }).setNegativeButton("Cancel", null).create();
@@ -734,6 +786,10 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private List<String> splitsToUse;
+    /** The output of the last merge if it was signed, for the install button */
+    private volatile Uri signedApk;
+    /** What the split selection listed, for the merge of the same bundle */
+    private SplitListing splitListing;
 
     private void showSuccess() {
         findViewById(R.id.cancelButton).setVisibility(View.GONE);
@@ -743,9 +799,10 @@ public class MainActivity extends AppCompatActivity {
             final String success = rss.getString(R.string.success_saved);
             logger.logMessage(success);
             runOnUiThread(() -> Toast.makeText(this, success, Toast.LENGTH_SHORT).show());
-            if(signApk && com.reandroid.Merger.signedApk != null) {
+            final Uri signedApk = this.signedApk;
+            if(signApk && signedApk != null) {
                 installButton.setVisibility(View.VISIBLE);
-                installButton.setOnClickListener(v -> InstallUtil.installApk(MainActivity.this, Merger.signedApk));
+                installButton.setOnClickListener(v -> InstallUtil.installApk(MainActivity.this, signedApk));
             } else installButton.setVisibility(View.GONE);
         }
     }
@@ -869,25 +926,7 @@ public class MainActivity extends AppCompatActivity {
             try {
                 if(splitAPKUri == null) process(Uri.fromFile(new File(outputFolder, "output.apk")));
                 else {
-                    File f;
-                    if(saveMode == 1) {
-                        String originalFilePath;
-                        if(urisAreSplitApks) originalFilePath = FileUtils.getPath(splitAPKUri, this);
-                        else {
-                            String path = FileUtils.getPath(uris.get(0), this);
-                            originalFilePath = (TextUtils.isEmpty(path) ? outputFolder : path.substring(0, path.lastIndexOf(File.separator))) + File.separator + getNameFromNonSplitApks();
-                        }
-                        String newFilePath = TextUtils.isEmpty(originalFilePath) ?
-                                outputFolder + File.separator + getOriginalFileName(splitAPKUri) // If originalFilePath is null urisAreSplitApks must be true because getNameFromNonSplitApks will always return something
-                                : originalFilePath.replaceFirst("\\.(?:zip|xapk|aspk|apk[sm])", suffix + ".apk");
-                        if(TextUtils.isEmpty(newFilePath) ||
-                                newFilePath.startsWith("/data/")
-                            // || !(f = new File(newFilePath)).createNewFile() || f.canWrite()
-                        ) {
-                            f = new File(outputFolder, newFilePath.substring(newFilePath.lastIndexOf(File.separator) + 1));
-                            showError(rss.getString(R.string.no_filepath) + newFilePath);
-                        } else f = new File(newFilePath);
-                    } else f = new File(outputFolder, urisAreSplitApks ? getOriginalFileName(splitAPKUri) : getNameFromNonSplitApks());
+                    File f = getOutputFile(splitAPKUri);
 
                     ((TextView) findViewById(R.id.logField)).setText("");
                     ((TextView) findViewById(R.id.errorField)).setText("");
@@ -902,6 +941,92 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    /**
+     * Where to save the merged APK when not asking for each file
+     */
+    private File getOutputFile(Uri splitAPKUri) throws IOException {
+        File f;
+        if(saveMode == 1) {
+            String originalFilePath;
+            if(urisAreSplitApks) originalFilePath = FileUtils.getPath(splitAPKUri, this);
+            else {
+                String path = FileUtils.getPath(uris.get(0), this);
+                originalFilePath = (TextUtils.isEmpty(path) ? outputFolder : path.substring(0, path.lastIndexOf(File.separator))) + File.separator + getNameFromNonSplitApks();
+            }
+            String newFilePath = TextUtils.isEmpty(originalFilePath) ?
+                    outputFolder + File.separator + getOriginalFileName(splitAPKUri) // If originalFilePath is null urisAreSplitApks must be true because getNameFromNonSplitApks will always return something
+                    : originalFilePath.replaceFirst("\\.(?:zip|xapk|aspk|apk[sm])", suffix + ".apk");
+            if(TextUtils.isEmpty(newFilePath) ||
+                    newFilePath.startsWith("/data/")
+                // || !(f = new File(newFilePath)).createNewFile() || f.canWrite()
+            ) {
+                f = new File(outputFolder, newFilePath.substring(newFilePath.lastIndexOf(File.separator) + 1));
+                showError(rss.getString(R.string.no_filepath) + newFilePath);
+            } else f = new File(newFilePath);
+        } else f = new File(outputFolder, urisAreSplitApks ? getOriginalFileName(splitAPKUri) : getNameFromNonSplitApks());
+        return f;
+    }
+
+    private boolean canProcessAsBatch() {
+        // Saving to a picked file or picking splits needs the user for every bundle
+        return urisAreSplitApks && uris != null && uris.size() > 1 && saveMode != 0 && !showDialog && TextUtils.isEmpty(pkgName);
+    }
+
+    /**
+     * Merge all selected bundles through a {@link MergeQueue} instead of one after another.
+     */
+    private void processBatch() {
+        checkStoragePerm(9);
+        ((TextView) findViewById(R.id.logField)).setText("");
+        ((TextView) findViewById(R.id.errorField)).setText("");
+        List<MergeQueue.Job> jobs = new ArrayList<>();
+        try {
+            for (Uri uri : uris) {
+                File f = com.abdurazaaqmohammed.utils.FileUtils.getUnusedFile(getOutputFile(uri));
+                // Claim the name now, two bundles could have the same one
+                //noinspection ResultOfMethodCallIgnored
+                f.createNewFile();
+                logger.logMessage(rss.getString(R.string.output) + f);
+                jobs.add(new MergeQueue.Job(uri, f));
+            }
+        } catch (IOException e) {
+            showError(e);
+            return;
+        }
+
+        findViewById(R.id.installButton).setVisibility(View.GONE);
+        toggleAnimation(true);
+        errorOccurred = false;
+        MergeQueue queue = new MergeQueue(this, jobs);
+        View cancelButton = findViewById(R.id.cancelButton);
+        cancelButton.setVisibility(View.VISIBLE);
+        cancelButton.setOnClickListener(v -> {
+            queue.cancel();
+            v.setVisibility(View.GONE);
+        });
+        queue.start(batchJobs, signApk, force, selectSplitsForDevice ? deviceSpecsUtil : null, finishedJobs -> {
+            toggleAnimation(false);
+            cancelButton.setVisibility(View.GONE);
+            signedApk = null; // More than one APK, nothing to install
+            int done = 0;
+            StringBuilder failed = new StringBuilder();
+            for (MergeQueue.Job job : finishedJobs) {
+                if (job.getStatus() == MergeQueue.Status.DONE) {
+                    done++;
+                    OutputVerifier.Report report = job.getReport();
+                    if (report != null && !report.isPassed()) failed.append(report).append('\n');
+                } else if (job.getStatus() == MergeQueue.Status.FAILED) failed.append(job.output.getName()).append(": ").append(job.getError()).append('\n');
+            }
+            logger.logMessage(rss.getString(R.string.batch_summary, done, finishedJobs.size()));
+            if (failed.length() == 0) showSuccess();
+            else {
+                errorOccurred = true;
+                showError(failed.toString());
+            }
+            cleanupAppFolder();
+        });
+    }
+
     private String getNameFromNonSplitApks() {
         String realName = null;
         String base = "base.apk";
@@ -1049,6 +1174,49 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        TextInputEditText batchJobsInput = settingsDialog.findViewById(R.id.batchJobsInput);
+        batchJobsInput.setText(String.valueOf(batchJobs));
+        batchJobsInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                try {
+                    batchJobs = Math.max(1, Integer.parseInt(s.toString()));
+                } catch (NumberFormatException ignored) {}
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+
+            }
+        });
+
+        TextInputEditText mergeCacheInput = settingsDialog.findViewById(R.id.mergeCacheInput);
+        mergeCacheInput.setText(String.valueOf(mergeCacheMb));
+        mergeCacheInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                try {
+                    mergeCacheMb = Math.max(0, Integer.parseInt(s.toString()));
+                    MergeCache.setBudget(mergeCacheMb * 1024L * 1024);
+                } catch (NumberFormatException ignored) {}
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+
+            }
+        });
+
         MaterialButtonToggleGroup themeButtons = settingsDialog.findViewById(R.id.themeToggleGroup);
         themeButtons.check(
                 systemTheme ? R.id.systemThemeButton :
@@ -1103,6 +1271,10 @@ public class MainActivity extends AppCompatActivity {
         forceToggle.setChecked(force);
         forceToggle.setOnCheckedChangeListener((buttonView, isChecked) -> force = isChecked);
 
+        CompoundButton verifyToggle = settingsDialog.findViewById(R.id.verifyToggle);
+        verifyToggle.setChecked(OutputVerifier.isEnabled());
+        verifyToggle.setOnCheckedChangeListener((buttonView, isChecked) -> OutputVerifier.setEnabled(isChecked));
+
         CompoundButton selectSplitsAutomaticallySwitch = settingsDialog.findViewById(R.id.selectSplitsForDeviceToggle);
         CompoundButton showDialogSwitch = settingsDialog.findViewById(R.id.showDialogToggle);
 
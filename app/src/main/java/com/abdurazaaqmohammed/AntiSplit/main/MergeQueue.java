@@ -0,0 +1,164 @@
+package com.abdurazaaqmohammed.AntiSplit.main;
+
+import android.content.res.Resources;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.abdurazaaqmohammed.AntiSplit.R;
+import com.abdurazaaqmohammed.utils.DeviceSpecsUtil;
+import com.abdurazaaqmohammed.utils.SplitListing;
+import com.abdurazaaqmohammed.utils.TaskScheduler;
+import com.reandroid.Merger;
+import com.reandroid.OutputVerifier;
+import com.reandroid.apkeditor.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Merges several bundles in the background, a few at a time.
+ * Every job gets its own cache folder, and a job that fails is logged and skipped instead of stopping the rest.
+ */
+public class MergeQueue {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    public static class Job {
+        public final Uri input;
+        public final File output;
+        volatile Status status = Status.QUEUED;
+        volatile Throwable error;
+        volatile Merger.Result result;
+
+        public Job(Uri input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return how the output did in its check, or null if it was not checked
+         */
+        public OutputVerifier.Report getReport() {
+            Merger.Result result = this.result;
+            return result == null ? null : result.getReport();
+        }
+    }
+
+    public interface Listener {
+        /** Called on the main thread once every job is done or failed */
+        void onFinished(List<Job> jobs);
+    }
+
+    private final MainActivity context;
+    private final List<Job> jobs;
+    private final AtomicInteger started = new AtomicInteger();
+    private final Set<Thread> workers = new HashSet<>();
+    private volatile boolean cancelled;
+
+    public MergeQueue(MainActivity context, List<Job> jobs) {
+        this.context = context;
+        this.jobs = new ArrayList<>(jobs);
+    }
+
+    public List<Job> getJobs() {
+        return jobs;
+    }
+
+    /**
+     * Start the jobs, at most maxJobs at once. Fewer run at once on a device with fewer cores or if the cache does not
+     * have room for that many, since a job may need to extract its bundle and buffer its output there.
+     */
+    public void start(int maxJobs, boolean signApk, boolean force, DeviceSpecsUtil deviceSpecsUtil, Listener listener) {
+        File cacheDir = context.getCacheDir();
+        int concurrency = getConcurrency(cacheDir, maxJobs);
+        context.getLogger().logMessage("Merging " + jobs.size() + " bundles, " + concurrency + " at a time");
+
+        // Each worker takes the next queued job until none are left, on the app's IO pool instead of a pool per batch
+        AtomicInteger workersLeft = new AtomicInteger(concurrency);
+        for (int i = 0; i < concurrency; i++) context.getTasks().submitIo(() -> {
+            synchronized (workers) {
+                workers.add(Thread.currentThread());
+            }
+            try {
+                int next;
+                while (!cancelled && (next = started.getAndIncrement()) < jobs.size())
+                    run(jobs.get(next), next + 1, cacheDir, signApk, force, deviceSpecsUtil);
+            } finally {
+                synchronized (workers) {
+                    workers.remove(Thread.currentThread());
+                }
+            }
+            if (workersLeft.decrementAndGet() == 0) context.getHandler().post(() -> listener.onFinished(jobs));
+        });
+    }
+
+    /**
+     * Stop starting queued jobs and interrupt the ones running. The listener is still called, jobs that never ran stay queued.
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (workers) {
+            for (Thread worker : workers) worker.interrupt();
+        }
+    }
+
+    private void run(Job job, int index, File cacheDir, boolean signApk, boolean force, DeviceSpecsUtil deviceSpecsUtil) {
+        MyAPKLogger logger = context.getLogger();
+        Resources rss = context.getRss();
+        String name = job.output.getName();
+        job.status = Status.RUNNING;
+        logger.logMessage(rss.getString(R.string.batch_started, index, jobs.size(), name));
+
+        File folder = new File(cacheDir, UUID.randomUUID().toString());
+        try {
+            if (!folder.mkdir()) throw new IOException("Could not create " + folder);
+            // Listed per job, the merge of this bundle gets its own listing
+            SplitListing listing = deviceSpecsUtil == null ? null : deviceSpecsUtil.listSplits(job.input);
+            List<String> splits = listing == null ? null : deviceSpecsUtil.getSplitsForDevice(listing);
+            job.result = Merger.run(job.input, folder, Uri.fromFile(job.output), context, splits, listing, signApk, force);
+            job.status = Status.DONE;
+            logger.logMessage(rss.getString(R.string.batch_done, name));
+        } catch (Exception | OutOfMemoryError e) {
+            job.error = e;
+            job.status = Status.FAILED;
+            //noinspection ResultOfMethodCallIgnored
+            job.output.delete();
+            logger.logMessage(rss.getString(R.string.batch_failed, name, String.valueOf(e)));
+        } finally {
+            Util.deleteDir(folder);
+        }
+    }
+
+    private int getConcurrency(File cacheDir, int maxJobs) {
+        long largest = 0;
+        for (Job job : jobs) largest = Math.max(largest, getSize(job.input));
+        int concurrency = Math.min(Math.min(maxJobs, jobs.size()), Runtime.getRuntime().availableProcessors());
+        // More workers than the IO pool has threads would only wait in its queue, and hold up everything else submitted there
+        concurrency = Math.min(concurrency, TaskScheduler.IO_THREADS);
+        // Worst case a job holds the extracted splits and the output in the cache, about twice the bundle
+        if (largest > 0) concurrency = (int) Math.min(concurrency, cacheDir.getUsableSpace() / (largest * 2));
+        return Math.max(1, concurrency);
+    }
+
+    private long getSize(Uri uri) {
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r")) {
+            return pfd == null ? -1 : pfd.getStatSize();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
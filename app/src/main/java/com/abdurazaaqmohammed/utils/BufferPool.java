@@ -0,0 +1,300 @@
+package com.abdurazaaqmohammed.utils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide pool of I/O buffers, shared by the zip, signing and file copy code so a merge
+ * reuses the same few buffers instead of allocating new ones for every entry, stream and digest
+ * task.
+ *
+ * <p>Buffers come in power of two size classes from {@link #MIN_SIZE} to {@link #MAX_SIZE}, a
+ * request is rounded up to its class so the buffer handed out may be larger than asked for.
+ * Larger requests are allocated as usual and never pooled. Heap and direct buffers are pooled
+ * separately but count against the same cap, see {@link #setMaxPooledBytes(long)}; buffers
+ * released past the cap are left to the garbage collector.
+ *
+ * <p>A buffer must not be used after it is released, and must be released at most once. With
+ * {@link #setLeakDetection(boolean)} on, a buffer released twice is logged and left out of the
+ * pool, and a buffer that is garbage collected without being released is logged with the stack
+ * trace of where it was acquired.
+ */
+public final class BufferPool {
+
+    /** Smallest size class, smaller requests get a buffer of this size. */
+    public static final int MIN_SIZE = 4 * 1024;
+
+    /** Largest size class, larger requests are not pooled. */
+    public static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final int NUM_SIZE_CLASSES =
+            Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+    private static final Logger LOG = Logger.getLogger(BufferPool.class.getName());
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<byte[]>[] heapBuffers = newSizeClasses();
+    private static final ArrayDeque<ByteBuffer>[] directBuffers = newSizeClasses();
+    private static long pooledBytes;
+    private static long maxPooledBytes =
+            Math.min(Runtime.getRuntime().maxMemory() / 8, 32L * 1024 * 1024);
+
+    private static volatile boolean leakDetection;
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private static final Set<Acquired> acquiredBuffers = new HashSet<>();
+    private static int leakCount;
+    private static int unknownReleaseCount;
+
+    private BufferPool() {}
+
+    /**
+     * Returns a heap buffer of at least {@code minSize} bytes. Its contents are undefined.
+     */
+    public static byte[] acquire(int minSize) {
+        byte[] buffer = null;
+        if (minSize <= MAX_SIZE) {
+            int sizeClass = getSizeClass(minSize);
+            synchronized (lock) {
+                buffer = heapBuffers[sizeClass].pollFirst();
+                if (buffer != null) {
+                    pooledBytes -= buffer.length;
+                }
+            }
+            if (buffer == null) {
+                buffer = new byte[MIN_SIZE << sizeClass];
+            }
+        } else {
+            buffer = new byte[minSize];
+        }
+        track(buffer);
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the pool. Does nothing if
+     * {@code buffer} is {@code null}.
+     */
+    public static void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (!untrack(buffer)) {
+            return;
+        }
+        int sizeClass = getPooledSizeClass(buffer.length);
+        if (sizeClass < 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (pooledBytes + buffer.length <= maxPooledBytes) {
+                heapBuffers[sizeClass].addFirst(buffer);
+                pooledBytes += buffer.length;
+            }
+        }
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of at least {@code minSize} bytes. Its
+     * contents are undefined.
+     */
+    public static ByteBuffer acquireDirect(int minSize) {
+        ByteBuffer buffer = null;
+        if (minSize <= MAX_SIZE) {
+            int sizeClass = getSizeClass(minSize);
+            synchronized (lock) {
+                buffer = directBuffers[sizeClass].pollFirst();
+                if (buffer != null) {
+                    pooledBytes -= buffer.capacity();
+                }
+            }
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(MIN_SIZE << sizeClass);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(minSize);
+        }
+        track(buffer);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquireDirect(int)} to the pool. Does nothing if
+     * {@code buffer} is {@code null}.
+     */
+    public static void releaseDirect(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (!untrack(buffer)) {
+            return;
+        }
+        int sizeClass = getPooledSizeClass(buffer.capacity());
+        if (sizeClass < 0 || !buffer.isDirect()) {
+            return;
+        }
+        synchronized (lock) {
+            if (pooledBytes + buffer.capacity() <= maxPooledBytes) {
+                directBuffers[sizeClass].addFirst(buffer);
+                pooledBytes += buffer.capacity();
+            }
+        }
+    }
+
+    /**
+     * Sets the most memory the pool keeps in buffers that are not in use, heap and direct
+     * together. Defaults to an eighth of the maximum heap size, at most 32 MiB. Lowering it drops
+     * pooled buffers until the pool fits.
+     */
+    public static void setMaxPooledBytes(long maxPooledBytes) {
+        synchronized (lock) {
+            BufferPool.maxPooledBytes = maxPooledBytes;
+            for (int i = NUM_SIZE_CLASSES - 1; i >= 0 && pooledBytes > maxPooledBytes; i--) {
+                int size = MIN_SIZE << i;
+                while (pooledBytes > maxPooledBytes && heapBuffers[i].pollFirst() != null) {
+                    pooledBytes -= size;
+                }
+                while (pooledBytes > maxPooledBytes && directBuffers[i].pollFirst() != null) {
+                    pooledBytes -= size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns tracking of acquired buffers on or off, meant for debug builds. A buffer acquired
+     * while it was off is not tracked, releasing it later counts as an unknown release.
+     */
+    public static void setLeakDetection(boolean leakDetection) {
+        BufferPool.leakDetection = leakDetection;
+    }
+
+    /**
+     * Returns the number of buffers found to be garbage collected without being released since
+     * leak detection was turned on.
+     */
+    public static int getLeakCount() {
+        synchronized (acquiredBuffers) {
+            pollLeaks();
+            return leakCount;
+        }
+    }
+
+    /**
+     * Returns the number of releases of buffers that were not handed out by the pool or were
+     * already released, since leak detection was turned on. Those buffers are not pooled again.
+     */
+    public static int getUnknownReleaseCount() {
+        synchronized (acquiredBuffers) {
+            return unknownReleaseCount;
+        }
+    }
+
+    private static int getSizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return Integer.numberOfTrailingZeros(Integer.highestOneBit(size - 1) << 1)
+                - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /** Returns the size class of a buffer of exactly {@code size} bytes, or -1 if none. */
+    private static int getPooledSizeClass(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return getSizeClass(size);
+    }
+
+    private static void track(Object buffer) {
+        if (!leakDetection) {
+            return;
+        }
+        synchronized (acquiredBuffers) {
+            pollLeaks();
+            acquiredBuffers.add(new Acquired(buffer, collected, new Throwable("Acquired here")));
+        }
+    }
+
+    /**
+     * Returns false if leak detection does not know the buffer, it may have been released already
+     * so it must not go back into the pool.
+     */
+    private static boolean untrack(Object buffer) {
+        if (!leakDetection) {
+            return true;
+        }
+        Acquired released = new Acquired(buffer, null, null);
+        synchronized (acquiredBuffers) {
+            pollLeaks();
+            if (acquiredBuffers.remove(released)) {
+                return true;
+            }
+            unknownReleaseCount++;
+        }
+        LOG.log(Level.WARNING, "Buffer of " + released.size
+                + " bytes released twice or not acquired from the pool", new Throwable("Released here"));
+        return false;
+    }
+
+    private static void pollLeaks() {
+        for (Object ref; (ref = collected.poll()) != null; ) {
+            Acquired acquired = (Acquired) ref;
+            if (acquiredBuffers.remove(acquired)) {
+                leakCount++;
+                LOG.log(Level.WARNING, "Buffer of " + acquired.size + " bytes never released",
+                        acquired.acquiredAt);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayDeque<T>[] newSizeClasses() {
+        ArrayDeque<T>[] sizeClasses = (ArrayDeque<T>[]) new ArrayDeque<?>[NUM_SIZE_CLASSES];
+        for (int i = 0; i < NUM_SIZE_CLASSES; i++) {
+            sizeClasses[i] = new ArrayDeque<>();
+        }
+        return sizeClasses;
+    }
+
+    /**
+     * A buffer handed out and not yet released, with where it was acquired. Equal to any other
+     * instance referring to the same buffer, so a release finds it by the buffer's identity.
+     */
+    private static class Acquired extends WeakReference<Object> {
+        private final int size;
+        private final int identityHash;
+        private final Throwable acquiredAt;
+
+        Acquired(Object buffer, ReferenceQueue<Object> queue, Throwable acquiredAt) {
+            super(buffer, queue);
+            size = buffer instanceof byte[]
+                    ? ((byte[]) buffer).length : ((ByteBuffer) buffer).capacity();
+            identityHash = System.identityHashCode(buffer);
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public int hashCode() {
+            return identityHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Acquired)) {
+                return false;
+            }
+            Object buffer = get();
+            return buffer != null && buffer == ((Acquired) o).get();
+        }
+    }
+}
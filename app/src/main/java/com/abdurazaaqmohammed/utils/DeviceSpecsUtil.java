@@ -3,17 +3,20 @@ package com.abdurazaaqmohammed.utils;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 
 import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
 import com.j256.simplezip.ZipFileInput;
+import com.j256.simplezip.format.ZipCentralDirectoryFileEntry;
 import com.j256.simplezip.format.ZipFileHeader;
 import com.reandroid.archive.ArchiveFile;
 import com.reandroid.archive.InputSource;
 import com.starry.FileUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -25,7 +28,6 @@ public class DeviceSpecsUtil {
     private final MainActivity context;
     public final String lang;
     private final String densityType;
-    public static ArchiveFile zipFile = null;
 
     public DeviceSpecsUtil(MainActivity context) {
         this.context = context;
@@ -33,8 +35,11 @@ public class DeviceSpecsUtil {
         this.densityType = getDeviceDpi();
     }
 
-    public List<String> getSplitsForDevice(Uri uri) throws IOException {
-        List<String> splits = getListOfSplits(uri);
+    /**
+     * @return the splits of the listed bundle this device does not need
+     */
+    public List<String> getSplitsForDevice(SplitListing listing) {
+        List<String> splits = listing.getSplits();
         switch (splits.size()) {
             case 4:
             case 3:
@@ -91,26 +96,31 @@ public class DeviceSpecsUtil {
         return splits;
     }
 
-    private List<String> getListOfSplitsFromFile(File file) throws IOException {
+    private SplitListing getListOfSplitsFromFile(File file) throws IOException {
         List<String> splits = new ArrayList<>();
-
-        // Do not close this ZipFile it could be used later in merger
-        for(InputSource inputSource : (zipFile = new ArchiveFile(file)).getInputSources()) {
-            String name = inputSource.getName();
-            if (name.endsWith(".apk")) splits.add(name);
+        try (ArchiveFile archiveFile = new ArchiveFile(file)) {
+            for(InputSource inputSource : archiveFile.getInputSources()) {
+                String name = inputSource.getName();
+                if (name.endsWith(".apk")) splits.add(name);
+            }
         }
-
-        return splits;
+        return new SplitListing(splits, file);
     }
 
-    public List<String> getListOfSplits(Uri splitAPKUri) throws IOException {
+    /**
+     * List the splits in this bundle, for the split selection and for the merge of the same bundle.
+     */
+    public SplitListing listSplits(Uri splitAPKUri) throws IOException {
         List<String> splits = new ArrayList<>();
         String path = FileUtils.getPath(splitAPKUri, context);
         File file;
         if(!TextUtils.isEmpty(path) && (file = new File(path)) != null && file.canRead()) return getListOfSplitsFromFile(file);
 
+        List<String> fromCentralDirectory = getListOfSplitsFromCentralDirectory(splitAPKUri);
+        if(fromCentralDirectory != null && fromCentralDirectory.size() > 1) return new SplitListing(fromCentralDirectory, null);
+
         try (InputStream is = context.getContentResolver().openInputStream(splitAPKUri);
-                ZipFileInput zis = new ZipFileInput(is)) {
+                ZipFileInput zis = new ZipFileInput(is, false)) {
             ZipFileHeader header;
             while ((header = zis.readFileHeader()) != null) {
                 final String name = header.getFileName();
@@ -123,7 +133,7 @@ public class DeviceSpecsUtil {
                 return getListOfSplitsFromFile(file);
             }
         }
-        if(splits.size() > 1) return splits;
+        if(splits.size() > 1) return new SplitListing(splits, null);
         try(InputStream is = context.getContentResolver().openInputStream(splitAPKUri)) {
             String uriString = splitAPKUri.toString();
             com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, file = new File(context.getCacheDir(), uriString.substring(uriString.lastIndexOf('/') + 1)));
@@ -131,6 +141,26 @@ public class DeviceSpecsUtil {
         }
     }
 
+    /**
+     * Only reads the central directory at the end of the bundle instead of the whole thing.
+     * @return null if the Uri could not be opened as a seekable file
+     */
+    private List<String> getListOfSplitsFromCentralDirectory(Uri splitAPKUri) {
+        try (ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(splitAPKUri, "r");
+             FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+             ZipFileInput zis = new ZipFileInput(fis.getChannel())) {
+            List<String> splits = new ArrayList<>();
+            for (ZipCentralDirectoryFileEntry entry : zis.readCentralDirectory()) {
+                final String name = entry.getFileName();
+                if (name.endsWith(".apk")) splits.add(name);
+            }
+            return splits;
+        } catch (Exception e) {
+            // Pipes and such, read it from the start
+            return null;
+        }
+    }
+
     public static boolean isArch(String thisSplit) {
         return thisSplit.contains("armeabi") || thisSplit.contains("arm64") || thisSplit.contains("x86") || thisSplit.contains("mips");
     }
@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Environment;
+import android.os.ParcelFileDescriptor;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -15,9 +16,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
 
 public class FileUtils {
 
+    /** Size of the buffer used when one of the streams is not backed by a file */
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
     public static File copyFileFromAssetsAndGetFile(String fileName, Context context) throws IOException {
         File destinationFile = new File(context.getFilesDir(), fileName);
         if(!destinationFile.exists()) try(InputStream is = context.getAssets().open(fileName)) {
@@ -45,19 +51,79 @@ public class FileUtils {
         return getOutputStream(new File(filepath));
     }
 
-    public static void copyFile(File sourceFile, File destinationFile) throws IOException {
-        try (InputStream is = getInputStream(sourceFile);
-             OutputStream os = getOutputStream(destinationFile)) {
-            copyFile(is, os);
+    public static long copyFile(File sourceFile, File destinationFile) throws IOException {
+        // Plain file streams so the copy can go through their channels
+        try (FileInputStream is = new FileInputStream(sourceFile);
+             FileOutputStream os = new FileOutputStream(destinationFile)) {
+            return copyFile(is, os);
         }
     }
 
-    public static void copyFile(InputStream is, OutputStream os) throws IOException {
-        if(LegacyUtils.supportsWriteExternalStorage) {
-            byte[] buffer = new byte[1024];
+    /**
+     * Streams of files and of content Uris backed by a ParcelFileDescriptor are FileInputStream/FileOutputStream,
+     * between two of those the kernel moves the bytes with FileChannel.transferTo. Anything else, or whatever is left
+     * if that stops early, goes through a pooled buffer.
+     * @return the number of bytes copied
+     */
+    public static long copyFile(InputStream is, OutputStream os) throws IOException {
+        long copied = 0;
+        if (hasOwnChannel(is) && hasOwnChannel(os))
+            copied = transfer(((FileInputStream) is).getChannel(), ((FileOutputStream) os).getChannel());
+        byte[] buffer = BufferPool.acquire(COPY_BUFFER_SIZE);
+        try {
             int length;
-            while ((length = is.read(buffer)) > 0) os.write(buffer, 0, length);
-        } else android.os.FileUtils.copy(is, os);
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+                copied += length;
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        return copied;
+    }
+
+    /**
+     * Only these classes are known to own their whole file. AssetFileDescriptor.AutoCloseInputStream is a
+     * FileInputStream too, but it reads a slice of an fd shared with the rest of the asset's container and its
+     * channel would copy past the slice's end.
+     */
+    private static boolean hasOwnChannel(Object stream) {
+        Class<?> c = stream.getClass();
+        return c == FileInputStream.class || c == FileOutputStream.class
+                || c == ParcelFileDescriptor.AutoCloseInputStream.class || c == ParcelFileDescriptor.AutoCloseOutputStream.class;
+    }
+
+    /**
+     * Copy from the position of in to its end and leave in positioned after what was copied.
+     * @return the number of bytes copied, 0 if in can't seek like a pipe
+     */
+    private static long transfer(FileChannel in, FileChannel out) throws IOException {
+        long position;
+        long size;
+        try {
+            position = in.position();
+            size = in.size();
+        } catch (IOException e) {
+            return 0;
+        }
+        long copied = 0;
+        while (position + copied < size) {
+            long num = in.transferTo(position + copied, size - position - copied, out);
+            if (num <= 0) break;
+            copied += num;
+        }
+        in.position(position + copied);
+        return copied;
+    }
+
+    /**
+     * @return something like "Copied 1.4 GB in 3.1 s (460.2 MB/s)" to log after a big copy
+     */
+    public static String describeTransfer(long bytes, long startNanos) {
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+        double mb = bytes / (1024.0 * 1024.0);
+        return String.format(Locale.ROOT, mb >= 1024 ? "Copied %.1f GB in %.1f s (%.1f MB/s)" : "Copied %.1f MB in %.1f s (%.1f MB/s)",
+                mb >= 1024 ? mb / 1024 : mb, seconds, mb / seconds);
     }
 
     public static InputStream getInputStream(File file) throws IOException {
@@ -70,15 +136,15 @@ public class FileUtils {
         return getInputStream(new File(filePath));
     }
 
-    public static void copyFile(InputStream is, File destinationFile) throws IOException {
-        try (OutputStream os = getOutputStream(destinationFile)) {
-            copyFile(is, os);
+    public static long copyFile(InputStream is, File destinationFile) throws IOException {
+        try (OutputStream os = hasOwnChannel(is) ? new FileOutputStream(destinationFile) : getOutputStream(destinationFile)) {
+            return copyFile(is, os);
         }
     }
 
-    public static void copyFile(File in, OutputStream os) throws IOException {
-        try(InputStream is = getInputStream(in)) {
-            copyFile(is, os);
+    public static long copyFile(File in, OutputStream os) throws IOException {
+        try(InputStream is = hasOwnChannel(os) ? new FileInputStream(in) : getInputStream(in)) {
+            return copyFile(is, os);
         }
     }
 
@@ -30,9 +30,12 @@ public class LanguageUtil {
         ((TextView) settingsDialog.findViewById(R.id.showDialogToggle)).setText(res.getString(R.string.show_dialog));
         ((TextView) settingsDialog.findViewById(R.id.signToggle)).setText(res.getString(R.string.sign_apk));
         ((TextView) settingsDialog.findViewById(R.id.forceToggle)).setText(res.getString(R.string.force));
+        ((TextView) settingsDialog.findViewById(R.id.verifyToggle)).setText(res.getString(R.string.verify_output));
         ((TextView) settingsDialog.findViewById(R.id.selectSplitsForDeviceToggle)).setText(res.getString(R.string.automatically_select));
         ((TextView) settingsDialog.findViewById(R.id.updateToggle)).setText(res.getString(R.string.auto_update));
         ((TextView) settingsDialog.findViewById(R.id.checkUpdateNow)).setText(res.getString(R.string.check_update_now));
         ((TextInputLayout) settingsDialog.findViewById(R.id.suffixLayout)).setHint(res.getString(R.string.suffix));
+        ((TextInputLayout) settingsDialog.findViewById(R.id.batchJobsLayout)).setHint(res.getString(R.string.batch_jobs));
+        ((TextInputLayout) settingsDialog.findViewById(R.id.mergeCacheLayout)).setHint(res.getString(R.string.merge_cache_size));
     }
 }
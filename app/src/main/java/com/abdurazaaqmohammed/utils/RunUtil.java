@@ -8,8 +8,6 @@ import android.widget.Toast;
 import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class RunUtil {
@@ -28,19 +26,14 @@ public class RunUtil {
         this.msg = msg;
     }
 
-    public static void runInBackground(Runnable runnable) {
-        try {
-            Executors.newSingleThreadExecutor().submit(runnable).get();
-        } catch (Exception ignored) { }
+    public static Future<?> runInBackground(Runnable runnable) {
+        return TaskScheduler.submitIo(runnable);
     }
 
-    public void runInBackground(Callable<Boolean> callable) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<Boolean> future = executor.submit(callable);
-
-        executor.submit(() -> {
+    public Future<?> runInBackground(Callable<Boolean> callable) {
+        return context.getTasks().submitIo(() -> {
             try {
-                Boolean success = future.get();
+                Boolean success = callable.call();
 
                 if (success && handler != null && !TextUtils.isEmpty(msg))
                     handler.post(() -> Toast.makeText(context, msg, Toast.LENGTH_SHORT).show());
@@ -50,13 +43,10 @@ public class RunUtil {
         });
     }
 
-    public void runInBackground(Callable<Boolean> callable, Runnable doAfter, boolean onlyIfSuccessful) {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        Future<Boolean> future = executor.submit(callable);
-
-        executor.submit(() -> {
+    public Future<?> runInBackground(Callable<Boolean> callable, Runnable doAfter, boolean onlyIfSuccessful) {
+        return context.getTasks().submitIo(() -> {
             try {
-                if (future.get() && handler != null) handler.post(doAfter);
+                if (callable.call() && handler != null) handler.post(doAfter);
             } catch (Exception e) {
                 if (!onlyIfSuccessful && handler != null) handler.post(doAfter);
                 (context).showError(e);
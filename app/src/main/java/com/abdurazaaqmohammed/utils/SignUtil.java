@@ -9,7 +9,11 @@ import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
 import com.aefyr.pseudoapksigner.IOUtils;
 import com.aefyr.pseudoapksigner.PseudoApkSigner;
 import com.android.apksig.ApkSigner;
+import com.android.apksig.DefaultApkSignerEngine;
 import com.android.apksig.apk.ApkFormatException;
+import com.reandroid.RawEntryIndex;
+import com.reandroid.SignedApkWriter;
+import com.reandroid.apk.ApkModule;
 import com.starry.FileUtils;
 
 
@@ -28,24 +32,21 @@ import java.security.cert.X509Certificate;
 import java.util.Collections;
 
 public class SignUtil {
+    private static final String CREATED_BY = "Android Gradle 8.0.2";
+
     public static void signApk(InputStream key, String password, File inputApk, File output) throws KeyStoreException, CertificateException, IOException, NoSuchAlgorithmException, ApkFormatException, SignatureException, InvalidKeyException, UnrecoverableEntryException {
         signApk(key, password, inputApk, output, true, true, true);
     }
 
     public static void signApk(InputStream key, String password, File inputApk, File output, boolean v1, boolean v2, boolean v3) throws KeyStoreException, CertificateException, IOException, NoSuchAlgorithmException, ApkFormatException, SignatureException, InvalidKeyException, UnrecoverableEntryException {
-        char[] pw = password.toCharArray();
-
-        KeyStore keystore = KeyStore.getInstance("BKS");
-        keystore.load(key, pw);
-
-        String alias = keystore.aliases().nextElement();
+        KeyStore.PrivateKeyEntry entry = loadKey(key, password);
 
         new ApkSigner.Builder(Collections.singletonList(new ApkSigner.SignerConfig.Builder("CERT",
-                ((KeyStore.PrivateKeyEntry) keystore.getEntry(alias, new KeyStore.PasswordProtection(pw))).getPrivateKey(),
-                Collections.singletonList((X509Certificate) keystore.getCertificate(alias))).build()))
+                entry.getPrivateKey(),
+                Collections.singletonList((X509Certificate) entry.getCertificate())).build()))
                 .setInputApk(inputApk)
                 .setOutputApk(output)
-                .setCreatedBy("Android Gradle 8.0.2")
+                .setCreatedBy(CREATED_BY)
                 .setV1SigningEnabled(v1)
                 .setV2SigningEnabled(v2)
                 .setV3SigningEnabled(v3).build().sign();
@@ -55,6 +56,27 @@ public class SignUtil {
         signApk(c.getAssets().open("debug23.keystore"), "android", inputApk, output, v1, v2, v3);
     }
 
+    /**
+     * Write the module straight into a signed APK, without an unsigned copy in between.
+     * @param rawEntries entries that can be copied from the splits as they are, or null
+     */
+    public static void signDebugKey(Context c, ApkModule module, File output, RawEntryIndex rawEntries) throws IOException, ApkFormatException, UnrecoverableEntryException, CertificateException, KeyStoreException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+        KeyStore.PrivateKeyEntry entry = loadKey(c.getAssets().open("debug23.keystore"), "android");
+        SignedApkWriter.write(module, output, new DefaultApkSignerEngine.SignerConfig.Builder("CERT",
+                entry.getPrivateKey(),
+                Collections.singletonList((X509Certificate) entry.getCertificate())).build(), CREATED_BY, rawEntries);
+    }
+
+    private static KeyStore.PrivateKeyEntry loadKey(InputStream key, String password) throws KeyStoreException, CertificateException, IOException, NoSuchAlgorithmException, UnrecoverableEntryException {
+        char[] pw = password.toCharArray();
+
+        KeyStore keystore = KeyStore.getInstance("BKS");
+        keystore.load(key, pw);
+
+        String alias = keystore.aliases().nextElement();
+        return (KeyStore.PrivateKeyEntry) keystore.getEntry(alias, new KeyStore.PasswordProtection(pw));
+    }
+
     public static void signDebugKey(Context c, File inputApk, File output) throws IOException, ApkFormatException, UnrecoverableEntryException, CertificateException, KeyStoreException, NoSuchAlgorithmException, SignatureException, InvalidKeyException {
         signDebugKey(c, inputApk, output, true, true, true);
     }
@@ -64,7 +86,7 @@ public class SignUtil {
         if(Build.VERSION.SDK_INT < 30) {
             // When I tried signing with apksig in AVD with sdk 10 java.security is throwing some error saying something not found
             // Apparently 11 is the last version that supports v1 signing alone.
-            try (InputStream is = com.abdurazaaqmohammed.utils.FileUtils.getInputStream(temp)) {
+            try {
                 final String FILE_NAME_PAST = "testkey.past";
                 final String FILE_NAME_PRIVATE_KEY = "testkey.pk8";
                 File signingEnvironment = new File(context.getFilesDir(), "signing");
@@ -78,7 +100,7 @@ public class SignUtil {
                 }
 
                 try(OutputStream os = FileUtils.getOutputStream(out, context)) {
-                    PseudoApkSigner.sign(is, os, pastFile, privateKeyFile);
+                    PseudoApkSigner.sign(temp, os, pastFile, privateKeyFile);
                 }
             } catch (Exception e2) {
                 context.getLogger().logMessage(msg);
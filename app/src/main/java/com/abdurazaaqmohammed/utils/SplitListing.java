@@ -0,0 +1,35 @@
+package com.abdurazaaqmohammed.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The splits found in one bundle by {@link DeviceSpecsUtil#listSplits}, handed to the merge of that bundle so it can stop
+ * reading once it has every split it needs and extract from the file that was already read.
+ */
+public class SplitListing {
+
+    private final List<String> splits;
+    private final File file;
+
+    SplitListing(List<String> splits, File file) {
+        this.splits = splits;
+        this.file = file;
+    }
+
+    /**
+     * @return every split in the bundle, a copy the caller can change
+     */
+    public List<String> getSplits() {
+        return new ArrayList<>(splits);
+    }
+
+    /**
+     * @return the bundle file the splits were listed from, which is a copy in the cache dir if the Uri's own path could
+     * not be read, or null if they were listed without a file
+     */
+    public File getFile() {
+        return file;
+    }
+}
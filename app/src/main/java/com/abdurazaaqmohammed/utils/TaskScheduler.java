@@ -0,0 +1,89 @@
+package com.abdurazaaqmohammed.utils;
+
+import com.android.apksig.internal.util.SharedWorkerPool;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The thread pools used by the whole app, instead of a new executor for every task.
+ * IO is for anything that mostly waits on storage (copying, extracting, merging), CPU is the pool apksig digests on.
+ * Both are bounded and their threads exit when idle. Work that belongs to an activity goes through a {@link Group}.
+ */
+public class TaskScheduler {
+
+    public static final int IO_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor io;
+
+    public static synchronized ExecutorService io() {
+        if (io == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            io = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "io-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            io.allowCoreThreadTimeOut(true);
+        }
+        return io;
+    }
+
+    public static ExecutorService cpu() {
+        return SharedWorkerPool.getExecutor();
+    }
+
+    public static Future<?> submitIo(Runnable task) {
+        return io().submit(task);
+    }
+
+    public static Future<?> submitCpu(Runnable task) {
+        return cpu().submit(task);
+    }
+
+    /**
+     * Tasks submitted for one owner, like an activity, so it can cancel its own work when it goes away without
+     * touching what anything else has running on the same pools.
+     */
+    public static class Group {
+
+        private final Set<Future<?>> running = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        public Future<?> submitIo(Runnable task) {
+            return submit(io(), task);
+        }
+
+        public Future<?> submitCpu(Runnable task) {
+            return submit(cpu(), task);
+        }
+
+        private Future<?> submit(ExecutorService executor, Runnable task) {
+            FutureTask<Void> future = new FutureTask<Void>(task, null) {
+                @Override
+                protected void done() {
+                    running.remove(this);
+                }
+            };
+            running.add(future);
+            executor.execute(future);
+            return future;
+        }
+
+        /**
+         * Interrupt everything submitted through this group that has not finished yet.
+         */
+        public void cancelAll() {
+            for (Future<?> future : running) future.cancel(true);
+            running.clear();
+        }
+    }
+}
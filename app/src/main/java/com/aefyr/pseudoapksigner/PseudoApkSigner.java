@@ -1,80 +1,138 @@
 package com.aefyr.pseudoapksigner;
 
+import com.android.apksig.ApkSigner;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.v1.V1SchemeVerifier;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.EocdRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.security.DigestInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.interfaces.RSAPrivateKey;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public class PseudoApkSigner {
-    public static void sign(InputStream apkInputStream, OutputStream output, File mTemplateFile, File privateKey) throws Exception {
+    private static final String HASHING_ALGORITHM = "SHA1";
+    private static final String[] META_INF_FILES_TO_SKIP_ENDINGS = new String[]{"manifest.mf", ".sf", ".rsa", ".dsa", ".ec"};
+    private static final int DOS_DATE_2009 = 0x3a21; // Jan 1 2009, what apksig uses when the input has no dates
+
+    /**
+     * Entries are copied as they are, compressed data included, and only inflated to be digested for the manifest.
+     * Stored entries are aligned to 4 bytes and stored .so files to 4096.
+     */
+    public static void sign(File apk, OutputStream output, File mTemplateFile, File privateKey) throws Exception {
         final RSAPrivateKey mPrivateKey = Utils.readPrivateKey(privateKey);
-        final String HASHING_ALGORITHM = "SHA1";
-        final String[] META_INF_FILES_TO_SKIP_ENDINGS = new String[]{"manifest.mf", ".sf", ".rsa", ".dsa", ".ec"};
 
         ManifestBuilder manifest = new ManifestBuilder();
         SignatureFileGenerator signature = new SignatureFileGenerator(manifest, HASHING_ALGORITHM);
 
-        ZipInputStream apkZipInputStream = new ZipInputStream(apkInputStream);
+        try (RandomAccessFile file = new RandomAccessFile(apk, "r")) {
+            DataSource source = DataSources.asDataSource(file);
+            ApkUtils.ZipSections sections = ApkUtils.findZipSections(source);
+            List<CentralDirectoryRecord> records = new ArrayList<>(V1SchemeVerifier.parseZipCentralDirectory(source, sections));
+            Collections.sort(records, CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+            long cdOffset = sections.getZipCentralDirectoryOffset();
 
-        ZipAlignZipOutputStream zipOutputStream = ZipAlignZipOutputStream.create(output, 4);
-        MessageDigest messageDigest = MessageDigest.getInstance(HASHING_ALGORITHM);
-        ZipEntry zipEntry;
-        OUTER:
-        while ((zipEntry = apkZipInputStream.getNextEntry()) != null) {
-            if (zipEntry.isDirectory())
-                continue;
+            BufferedOutputStream bufferedOutput = new BufferedOutputStream(output, 64 * 1024);
+            DataSink sink = DataSinks.asDataSink(bufferedOutput);
+            MessageDigest messageDigest = MessageDigest.getInstance(HASHING_ALGORITHM);
+            DataSink digestSink = DataSinks.asDataSink(messageDigest);
+            List<CentralDirectoryRecord> outputRecords = new ArrayList<>(records.size() + 3);
+            long offset = 0;
+            int lastModifiedDate = -1;
+            int lastModifiedTime = -1;
+            OUTER:
+            for (CentralDirectoryRecord record : records) {
+                String name = record.getName();
+                if (name.endsWith("/"))
+                    continue;
 
-            if(zipEntry.getName().toLowerCase().startsWith("meta-inf/")) {
-                for(String fileToSkipEnding: META_INF_FILES_TO_SKIP_ENDINGS) {
-                    if(zipEntry.getName().toLowerCase().endsWith(fileToSkipEnding))
-                        continue OUTER;
+                if (name.toLowerCase().startsWith("meta-inf/")) {
+                    for (String fileToSkipEnding : META_INF_FILES_TO_SKIP_ENDINGS) {
+                        if (name.toLowerCase().endsWith(fileToSkipEnding))
+                            continue OUTER;
+                    }
                 }
-            }
-
 
-            messageDigest.reset();
-            DigestInputStream entryInputStream = new DigestInputStream(apkZipInputStream, messageDigest);
+                LocalFileRecord localRecord = LocalFileRecord.getRecord(source, record, cdOffset);
+                messageDigest.reset();
+                localRecord.outputUncompressedData(source, digestSink);
 
-            ZipEntry newZipEntry = new ZipEntry(zipEntry.getName());
-            newZipEntry.setMethod(zipEntry.getMethod());
-            if (zipEntry.getMethod() == ZipEntry.STORED) {
-                newZipEntry.setSize(zipEntry.getSize());
-                newZipEntry.setCompressedSize(zipEntry.getSize());
-                newZipEntry.setCrc(zipEntry.getCrc());
-            }
+                int alignment = localRecord.isDataCompressed() ? 1 : name.endsWith(".so") ? 4096 : 4;
+                outputRecords.add(record.createWithModifiedLocalFileHeaderOffset(offset));
+                if ((offset + localRecord.getDataStartOffsetInRecord()) % alignment == 0) {
+                    offset += localRecord.outputRecord(source, sink);
+                } else {
+                    ByteBuffer extra = ApkSigner.createExtraFieldToAlignData(localRecord.getExtra(), offset + localRecord.getExtraFieldStartOffsetInsideRecord(), alignment);
+                    offset += localRecord.outputRecordWithModifiedExtra(source, extra, sink);
+                }
 
-            zipOutputStream.setAlignment(newZipEntry.getName().endsWith(".so") ? 4096 : 4);
-            zipOutputStream.putNextEntry(newZipEntry);
-            Utils.copyStream(entryInputStream, zipOutputStream);
-            zipOutputStream.closeEntry();
-            apkZipInputStream.closeEntry();
+                // New entries get the date of the newest entry, same as apksig does
+                int date = record.getLastModificationDate();
+                int time = record.getLastModificationTime();
+                if (date > lastModifiedDate || (date == lastModifiedDate && time > lastModifiedTime)) {
+                    lastModifiedDate = date;
+                    lastModifiedTime = time;
+                }
 
-            ManifestBuilder.ManifestEntry manifestEntry = new ManifestBuilder.ManifestEntry();
-            manifestEntry.setAttribute("Name", zipEntry.getName());
-            manifestEntry.setAttribute(HASHING_ALGORITHM + "-Digest", Utils.base64Encode(messageDigest.digest()));
-            manifest.addEntry(manifestEntry);
-        }
+                ManifestBuilder.ManifestEntry manifestEntry = new ManifestBuilder.ManifestEntry();
+                manifestEntry.setAttribute("Name", name);
+                manifestEntry.setAttribute(HASHING_ALGORITHM + "-Digest", Utils.base64Encode(messageDigest.digest()));
+                manifest.addEntry(manifestEntry);
+            }
+            if (lastModifiedDate == -1) {
+                lastModifiedDate = DOS_DATE_2009;
+                lastModifiedTime = 0;
+            }
 
-        zipOutputStream.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
-        zipOutputStream.write(manifest.build().getBytes(Constants.UTF8));
-        zipOutputStream.closeEntry();
+            String mSignerName = "CERT";
+            byte[] signatureFile = signature.generate().getBytes(Constants.UTF8);
+            ByteArrayOutputStream signatureBlock = new ByteArrayOutputStream();
+            signatureBlock.write(Utils.readFile(mTemplateFile));
+            signatureBlock.write(Utils.sign(HASHING_ALGORITHM, mPrivateKey, signatureFile));
 
-        String mSignerName = "CERT";
-        zipOutputStream.putNextEntry(new ZipEntry(String.format("META-INF/%s.SF", mSignerName)));
-        zipOutputStream.write(signature.generate().getBytes(Constants.UTF8));
-        zipOutputStream.closeEntry();
+            offset += outputDeflatedEntry("META-INF/MANIFEST.MF", manifest.build().getBytes(Constants.UTF8), lastModifiedTime, lastModifiedDate, offset, outputRecords, sink);
+            offset += outputDeflatedEntry(String.format("META-INF/%s.SF", mSignerName), signatureFile, lastModifiedTime, lastModifiedDate, offset, outputRecords, sink);
+            offset += outputDeflatedEntry(String.format("META-INF/%s.RSA", mSignerName), signatureBlock.toByteArray(), lastModifiedTime, lastModifiedDate, offset, outputRecords, sink);
 
-        zipOutputStream.putNextEntry(new ZipEntry(String.format("META-INF/%s.RSA", mSignerName)));
-        zipOutputStream.write(Utils.readFile(mTemplateFile));
-        zipOutputStream.write(Utils.sign(HASHING_ALGORITHM, mPrivateKey, signature.generate().getBytes(Constants.UTF8)));
-        zipOutputStream.closeEntry();
+            long cdSize = 0;
+            for (CentralDirectoryRecord record : outputRecords) cdSize += record.getSize();
+            ByteBuffer centralDirectory = ByteBuffer.allocate((int) cdSize);
+            for (CentralDirectoryRecord record : outputRecords) record.copyTo(centralDirectory);
+            centralDirectory.flip();
+            sink.consume(centralDirectory);
+            sink.consume(EocdRecord.createWithModifiedCentralDirectoryInfo(sections.getZipEndOfCentralDirectory(), outputRecords.size(), cdSize, offset));
+            bufferedOutput.flush();
+        }
+    }
 
-        apkZipInputStream.close();
-        zipOutputStream.close();
+    private static long outputDeflatedEntry(String name, byte[] data, int lastModifiedTime, int lastModifiedDate, long offset, List<CentralDirectoryRecord> outputRecords, DataSink sink) throws Exception {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try (DeflaterOutputStream deflaterOutput = new DeflaterOutputStream(compressed, deflater)) {
+            deflaterOutput.write(data);
+        } finally {
+            deflater.end();
+        }
+        byte[] compressedData = compressed.toByteArray();
+        outputRecords.add(CentralDirectoryRecord.createWithDeflateCompressedData(name, lastModifiedTime, lastModifiedDate, crc.getValue(), compressedData.length, data.length, offset));
+        return LocalFileRecord.outputRecordWithDeflateCompressedData(name, lastModifiedTime, lastModifiedDate, compressedData, crc.getValue(), data.length, sink);
     }
 }
@@ -1,5 +1,6 @@
 package com.aefyr.pseudoapksigner;
 
+import com.abdurazaaqmohammed.utils.BufferPool;
 import com.abdurazaaqmohammed.utils.FileUtils;
 
 import java.io.File;
@@ -26,10 +27,14 @@ public class Utils {
     }
 
     static void copyStream(InputStream from, OutputStream to) throws IOException {
-        byte[] buf = new byte[1024 * 1024];
-        int len;
-        while ((len = from.read(buf)) > 0) {
-            to.write(buf, 0, len);
+        byte[] buf = BufferPool.acquire(1024 * 1024);
+        try {
+            int len;
+            while ((len = from.read(buf)) > 0) {
+                to.write(buf, 0, len);
+            }
+        } finally {
+            BufferPool.release(buf);
         }
     }
 
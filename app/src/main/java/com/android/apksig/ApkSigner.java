@@ -84,7 +84,7 @@ public class ApkSigner {
      */
     private static final short ALIGNMENT_ZIP_EXTRA_DATA_FIELD_MIN_SIZE_BYTES = 6;
 
-    private static final short ANDROID_COMMON_PAGE_ALIGNMENT_BYTES = 4096;
+    static final short ANDROID_COMMON_PAGE_ALIGNMENT_BYTES = 4096;
 
     private static final short ANDROID_FILE_ALIGNMENT_BYTES = 4096;
 
@@ -205,7 +205,7 @@ public class ApkSigner {
             } else if (mInputApkFile != null) {
                 RandomAccessFile inputFile = new RandomAccessFile(mInputApkFile, "r");
                 in = inputFile;
-                inputApk = DataSources.asDataSource(inputFile);
+                inputApk = DataSources.asMappedDataSource(inputFile);
             } else {
                 throw new IllegalStateException("Input APK not specified");
             }
@@ -664,7 +664,7 @@ public class ApkSigner {
         }
     }
 
-    private static void requestOutputEntryInspection(
+    static void requestOutputEntryInspection(
             ApkSignerEngine signerEngine,
             String entryName,
             byte[] uncompressedData)
@@ -678,7 +678,7 @@ public class ApkSigner {
         }
     }
 
-    private static long outputDataToOutputApk(
+    static long outputDataToOutputApk(
             String entryName,
             byte[] uncompressedData,
             long localFileHeaderOffset,
@@ -826,7 +826,12 @@ public class ApkSigner {
         return (entry.getName().endsWith(".so")) ? ANDROID_COMMON_PAGE_ALIGNMENT_BYTES : 4;
     }
 
-    private static ByteBuffer createExtraFieldToAlignData(
+    /**
+     * Returns the provided extra field with an APK alignment field that aligns the data following
+     * it, when the extra field starts at {@code extraStartOffset}, to {@code
+     * dataAlignmentMultiple}.
+     */
+    public static ByteBuffer createExtraFieldToAlignData(
             ByteBuffer original, long extraStartOffset, int dataAlignmentMultiple) {
         if (dataAlignmentMultiple <= 1) {
             return original;
@@ -100,18 +100,21 @@ public class ApkVerifier {
 
     private final Integer mMinSdkVersion;
     private final int mMaxSdkVersion;
+    private final RunnablesExecutor mExecutor;
 
     private ApkVerifier(
             File apkFile,
             DataSource apkDataSource,
             File v4SignatureFile,
             Integer minSdkVersion,
-            int maxSdkVersion) {
+            int maxSdkVersion,
+            RunnablesExecutor executor) {
         mApkFile = apkFile;
         mApkDataSource = apkDataSource;
         mV4SignatureFile = v4SignatureFile;
         mMinSdkVersion = minSdkVersion;
         mMaxSdkVersion = maxSdkVersion;
+        mExecutor = executor;
     }
 
     /**
@@ -143,7 +146,7 @@ public class ApkVerifier {
             } else if (mApkFile != null) {
                 RandomAccessFile f = new RandomAccessFile(mApkFile, "r");
                 in = f;
-                apk = DataSources.asDataSource(f, 0, f.length());
+                apk = DataSources.asMappedDataSource(f);
             } else {
                 throw new IllegalStateException("APK not provided");
             }
@@ -200,8 +203,10 @@ public class ApkVerifier {
         // include v2 and/or v3 signatures.  If none is found, it falls back to JAR signature
         // verification. If the signature is found but does not verify, the APK is rejected.
         Set<Integer> foundApkSigSchemeIds = new HashSet<>(2);
+        RunnablesExecutor executor = mExecutor;
         if (maxSdkVersion >= AndroidSdkVersion.N) {
-            RunnablesExecutor executor = RunnablesExecutor.SINGLE_THREADED;
+            // v3.1, v3 and v2 digest the same contents, each algorithm is computed only once
+            Map<ContentDigestAlgorithm, byte[]> computedContentDigests = new HashMap<>(2);
             // Android T and newer attempts to verify APKs using APK Signature Scheme V3.1. v3.0
             // also includes stripping protection for the minimum SDK version on which the rotated
             // signing key should be used.
@@ -212,6 +217,7 @@ public class ApkVerifier {
                             zipSections, Math.max(minSdkVersion, MIN_SDK_WITH_V31_SUPPORT),
                             maxSdkVersion)
                             .setRunnablesExecutor(executor)
+                            .setComputedContentDigests(computedContentDigests)
                             .setBlockId(V3SchemeConstants.APK_SIGNATURE_SCHEME_V31_BLOCK_ID)
                             .build()
                             .verify();
@@ -240,6 +246,7 @@ public class ApkVerifier {
                             zipSections, Math.max(minSdkVersion, AndroidSdkVersion.P),
                             maxSdkVersion)
                             .setRunnablesExecutor(executor)
+                            .setComputedContentDigests(computedContentDigests)
                             .setBlockId(V3SchemeConstants.APK_SIGNATURE_SCHEME_V3_BLOCK_ID);
                     if (rotationMinSdkVersion > 0) {
                         builder.setRotationMinSdkVersion(rotationMinSdkVersion);
@@ -278,7 +285,8 @@ public class ApkVerifier {
                                     supportedSchemeNames,
                                     foundApkSigSchemeIds,
                                     Math.max(minSdkVersion, AndroidSdkVersion.N),
-                                    maxSdkVersion);
+                                    maxSdkVersion,
+                                    computedContentDigests);
                     foundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
                     result.mergeFrom(v2Result);
                     signatureSchemeApkContentDigests.put(
@@ -337,7 +345,8 @@ public class ApkVerifier {
                             supportedSchemeNames,
                             foundApkSigSchemeIds,
                             minSdkVersion,
-                            maxSdkVersion);
+                            maxSdkVersion,
+                            executor);
             result.mergeFrom(v1Result);
             signatureSchemeApkContentDigests.put(
                     ApkSigningBlockUtils.VERSION_JAR_SIGNATURE_SCHEME,
@@ -691,7 +700,7 @@ public class ApkVerifier {
             } else if (mApkFile != null) {
                 RandomAccessFile f = new RandomAccessFile(mApkFile, "r");
                 in = f;
-                apk = DataSources.asDataSource(f, 0, f.length());
+                apk = DataSources.asMappedDataSource(f);
             } else {
                 throw new IllegalStateException("APK not provided");
             }
@@ -3158,6 +3167,7 @@ public class ApkVerifier {
 
         private Integer mMinSdkVersion;
         private int mMaxSdkVersion = Integer.MAX_VALUE;
+        private RunnablesExecutor mExecutor = RunnablesExecutor.SINGLE_THREADED;
 
         /**
          * Constructs a new {@code Builder} for verifying the provided APK file.
@@ -3220,6 +3230,20 @@ public class ApkVerifier {
             return this;
         }
 
+        /**
+         * Sets the {@link RunnablesExecutor} used to compute the APK's content digests and the
+         * digests of its JAR entries. Defaults to {@link RunnablesExecutor#SINGLE_THREADED}, use
+         * {@link RunnablesExecutor#MULTI_THREADED} to verify on the shared worker pool like the
+         * signer does.
+         */
+        public Builder setRunnablesExecutor(RunnablesExecutor executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
         /**
          * Returns an {@link ApkVerifier} initialized according to the configuration of this
          * builder.
@@ -3230,7 +3254,8 @@ public class ApkVerifier {
                     mApkDataSource,
                     mV4SignatureFile,
                     mMinSdkVersion,
-                    mMaxSdkVersion);
+                    mMaxSdkVersion,
+                    mExecutor);
         }
     }
 
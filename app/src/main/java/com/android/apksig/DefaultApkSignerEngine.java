@@ -31,6 +31,7 @@ import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ContentDigestCache;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.stamp.V2SourceStampSigner;
 import com.android.apksig.internal.apk.v1.DigestAlgorithm;
@@ -56,6 +57,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -1054,11 +1056,42 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             signingSchemeBlocks.addAll(mPreservedSignatureBlocks);
         }
 
-        // create APK Signature Scheme V2 Signature if requested
+        List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs = null;
+        List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs = null;
+        List<ApkSigningBlockUtils.SignerConfig> v31SignerConfigs = null;
         if (mV2SigningEnabled) {
             invalidateV2Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs =
-                    createV2SignerConfigs(apkSigningBlockPaddingSupported);
+            v2SignerConfigs = createV2SignerConfigs(apkSigningBlockPaddingSupported);
+        }
+        if (mV3SigningEnabled) {
+            invalidateV3Signature();
+            v3SignerConfigs = createV3SignerConfigs(apkSigningBlockPaddingSupported);
+            v31SignerConfigs = processV31SignerConfigs(v3SignerConfigs);
+        }
+
+        // The v2, v3 and v3.1 blocks all sign digests of the same content. Compute every digest any
+        // of them needs in a single pass over the APK, then let each scheme take its own from the
+        // cache instead of reading the whole APK again.
+        ContentDigestCache contentDigestCache = new ContentDigestCache();
+        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>();
+        for (List<ApkSigningBlockUtils.SignerConfig> signerConfigs :
+                Arrays.asList(v2SignerConfigs, v3SignerConfigs, v31SignerConfigs)) {
+            if (signerConfigs != null) {
+                contentDigestAlgorithms.addAll(
+                        ApkSigningBlockUtils.getContentDigestAlgorithms(signerConfigs));
+            }
+        }
+        if (!contentDigestAlgorithms.isEmpty()) {
+            try {
+                contentDigestCache.getContentDigests(mExecutor, contentDigestAlgorithms,
+                        beforeCentralDir, zipCentralDirectory, eocd);
+            } catch (DigestException e) {
+                throw new SignatureException("Failed to compute digests of APK", e);
+            }
+        }
+
+        // create APK Signature Scheme V2 Signature if requested
+        if (mV2SigningEnabled) {
             v2SigningSchemeBlockAndDigests =
                     V2SchemeSigner.generateApkSignatureSchemeV2Block(
                             mExecutor,
@@ -1067,15 +1100,11 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                             eocd,
                             v2SignerConfigs,
                             mV3SigningEnabled,
-                            mOtherSignersSignaturesPreserved ? mPreservedV2Signers : null);
+                            mOtherSignersSignaturesPreserved ? mPreservedV2Signers : null,
+                            contentDigestCache);
             signingSchemeBlocks.add(v2SigningSchemeBlockAndDigests.signingSchemeBlock);
         }
         if (mV3SigningEnabled) {
-            invalidateV3Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs =
-                    createV3SignerConfigs(apkSigningBlockPaddingSupported);
-            List<ApkSigningBlockUtils.SignerConfig> v31SignerConfigs = processV31SignerConfigs(
-                    v3SignerConfigs);
             if (v31SignerConfigs != null && v31SignerConfigs.size() > 0) {
                 ApkSigningBlockUtils.SigningSchemeBlockAndDigests
                         v31SigningSchemeBlockAndDigests =
@@ -1084,6 +1113,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                                 .setRunnablesExecutor(mExecutor)
                                 .setBlockId(V3SchemeConstants.APK_SIGNATURE_SCHEME_V31_BLOCK_ID)
                                 .setRotationTargetsDevRelease(mRotationTargetsDevRelease)
+                                .setContentDigestCache(contentDigestCache)
                                 .build()
                                 .generateApkSignatureSchemeV3BlockAndDigests();
                 signingSchemeBlocks.add(v31SigningSchemeBlockAndDigests.signingSchemeBlock);
@@ -1091,7 +1121,8 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             V3SchemeSigner.Builder builder = new V3SchemeSigner.Builder(beforeCentralDir,
                 zipCentralDirectory, eocd, v3SignerConfigs)
                 .setRunnablesExecutor(mExecutor)
-                .setBlockId(V3SchemeConstants.APK_SIGNATURE_SCHEME_V3_BLOCK_ID);
+                .setBlockId(V3SchemeConstants.APK_SIGNATURE_SCHEME_V3_BLOCK_ID)
+                .setContentDigestCache(contentDigestCache);
             if (signingLineageHas31Support()) {
                 builder.setRotationMinSdkVersion(mRotationMinSdkVersion);
             }
@@ -1099,6 +1130,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                 builder.build().generateApkSignatureSchemeV3BlockAndDigests();
             signingSchemeBlocks.add(v3SigningSchemeBlockAndDigests.signingSchemeBlock);
         }
+        contentDigestCache.clear();
         if (isEligibleForSourceStamp()) {
             ApkSigningBlockUtils.SignerConfig sourceStampSignerConfig =
                     createSourceStampSignerConfig();
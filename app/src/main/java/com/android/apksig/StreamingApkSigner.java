@@ -0,0 +1,586 @@
+package com.android.apksig;
+
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.internal.util.ByteArrayDataSink;
+import com.android.apksig.internal.util.ByteBufferDataSource;
+import com.android.apksig.internal.util.TeeDataSink;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.EocdRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipUtils;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Writes a new APK from a stream of entries and signs it in the same pass.
+ *
+ * <p>Unlike {@link ApkSigner}, which reads an existing APK and writes a signed copy of it, this
+ * signer is handed the entries of the APK one at a time. JAR signature (v1) digests are computed
+ * while each entry is written, and the JAR signature, the APK Signing Block and the ZIP Central
+ * Directory are appended by {@link #finish()}. The only data read back is the output itself, for
+ * the APK Signature Scheme v2+ digests.
+ *
+ * <p>Uncompressed entries are aligned the same way {@link ApkSigner} aligns them: native libraries
+ * to the page size and everything else to 4 bytes.
+ *
+ * <p>Use {@link DefaultApkSignerEngine} to obtain an engine. An instance of this class writes
+ * exactly one APK and is not thread-safe.
+ */
+public class StreamingApkSigner {
+
+    /** Size of a ZIP Local File Header record without its name and extra field. */
+    private static final int LOCAL_FILE_HEADER_SIZE_BYTES = 30;
+
+    /** 1981-01-01 00:00, the timestamp build tools use for reproducible APKs. */
+    private static final int LAST_MODIFIED_TIME = 0;
+    private static final int LAST_MODIFIED_DATE = (1 << 9) | (1 << 5) | 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ApkSignerEngine mSignerEngine;
+    private final DataSink mOutput;
+    private final DataSource mOutputReadable;
+    private final RandomAccessFile mOutputFile;
+    private final int mCompressionLevel;
+    private DeflateStreamFactory mDeflateStreamFactory;
+
+    private final List<CentralDirectoryRecord> mCdRecords = new ArrayList<>();
+    private final Set<String> mOutputEntryNames = new HashSet<>();
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final byte[] mCodecBuffer = new byte[BUFFER_SIZE];
+    private long mOutputOffset;
+    private boolean mFinished;
+
+    /**
+     * Constructs a new signer writing to {@code output}.
+     *
+     * @param output sink the APK is written to, starting at offset {@code 0}
+     * @param outputReadable data source reflecting everything written to {@code output} so far,
+     *        used to compute APK Signature Scheme v2+ digests in {@link #finish()}
+     * @param compressionLevel {@link Deflater} level for entries compressed by this signer
+     */
+    public StreamingApkSigner(
+            ApkSignerEngine signerEngine,
+            DataSink output,
+            DataSource outputReadable,
+            int compressionLevel) {
+        mSignerEngine = signerEngine;
+        mOutput = output;
+        mOutputReadable = outputReadable;
+        mOutputFile = null;
+        mCompressionLevel = compressionLevel;
+    }
+
+    /**
+     * Constructs a new signer writing to {@code output}, starting at offset {@code 0}.
+     *
+     * <p>Compressed entries are written straight to the file and their Local File Headers are
+     * filled in afterwards, instead of being buffered in memory.
+     *
+     * @param compressionLevel {@link Deflater} level for entries compressed by this signer
+     */
+    public StreamingApkSigner(
+            ApkSignerEngine signerEngine,
+            RandomAccessFile output,
+            int compressionLevel) {
+        mSignerEngine = signerEngine;
+        mOutput = DataSinks.asDataSink(output);
+        mOutputReadable = DataSources.asDataSource(output);
+        mOutputFile = output;
+        mCompressionLevel = compressionLevel;
+    }
+
+    /**
+     * Compresses the data of entries output by {@link #outputDeflatedEntry}.
+     */
+    public interface DeflateStreamFactory {
+        /**
+         * Returns a stream that writes everything written to it to {@code out} as raw deflate
+         * data, without a zlib header. Closing it finishes the deflate data but does not close
+         * {@code out}.
+         */
+        OutputStream create(OutputStream out, int compressionLevel);
+    }
+
+    /**
+     * Makes {@link #outputDeflatedEntry} compress with streams from {@code factory}, for example
+     * to compress blocks of each entry in parallel. Pass {@code null} to compress with a
+     * {@link Deflater} on the calling thread again.
+     */
+    public void setDeflateStreamFactory(DeflateStreamFactory factory) {
+        mDeflateStreamFactory = factory;
+    }
+
+    /**
+     * Outputs an uncompressed entry. Its data is read from {@code data} until EOF.
+     *
+     * @throws IOException if the data does not match {@code crc32} and {@code size}
+     */
+    public void outputStoredEntry(String name, long crc32, long size, InputStream data)
+            throws IOException, ApkFormatException {
+        EntryInspection inspection = beginEntry(name);
+        if (!inspection.output) {
+            inspection.consumeUncompressed(data, mBuffer);
+            return;
+        }
+
+        int nameSizeBytes = name.getBytes(StandardCharsets.UTF_8).length;
+        int dataAlignmentMultiple =
+                name.endsWith(".so") ? ApkSigner.ANDROID_COMMON_PAGE_ALIGNMENT_BYTES : 4;
+        ByteBuffer extra =
+                ApkSigner.createExtraFieldToAlignData(
+                        ByteBuffer.allocate(0),
+                        mOutputOffset + LOCAL_FILE_HEADER_SIZE_BYTES + nameSizeBytes,
+                        dataAlignmentMultiple);
+        long localFileHeaderOffset = mOutputOffset;
+        mOutputOffset +=
+                LocalFileRecord.outputRecordHeader(
+                        name,
+                        ZipUtils.COMPRESSION_METHOD_STORED,
+                        LAST_MODIFIED_TIME,
+                        LAST_MODIFIED_DATE,
+                        crc32,
+                        size,
+                        size,
+                        extra,
+                        mOutput);
+
+        DataSink sink =
+                (inspection.sink != null)
+                        ? new TeeDataSink(new DataSink[] {mOutput, inspection.sink})
+                        : mOutput;
+        CRC32 crc = new CRC32();
+        long written = 0;
+        int read;
+        while ((read = data.read(mBuffer)) != -1) {
+            crc.update(mBuffer, 0, read);
+            sink.consume(mBuffer, 0, read);
+            written += read;
+        }
+        checkEntry(name, crc32, size, crc.getValue(), written);
+        mOutputOffset += written;
+        inspection.done();
+
+        mCdRecords.add(
+                CentralDirectoryRecord.createWithData(
+                        name,
+                        ZipUtils.COMPRESSION_METHOD_STORED,
+                        LAST_MODIFIED_TIME,
+                        LAST_MODIFIED_DATE,
+                        crc32,
+                        size,
+                        size,
+                        localFileHeaderOffset));
+    }
+
+    /**
+     * Compresses and outputs an entry. Its uncompressed data is read from {@code data} until EOF.
+     */
+    public void outputDeflatedEntry(String name, InputStream data)
+            throws IOException, ApkFormatException {
+        EntryInspection inspection = beginEntry(name);
+        if (!inspection.output) {
+            inspection.consumeUncompressed(data, mBuffer);
+            return;
+        }
+
+        // The Local File Header has to state the compressed size. A file output gets the header
+        // with placeholders, filled in once the entry has been read in full. Other outputs get the
+        // compressed data buffered until then
+        long localFileHeaderOffset = mOutputOffset;
+        ByteArrayDataSink buffered = null;
+        DataSink compressed;
+        if (mOutputFile != null) {
+            mOutputOffset +=
+                    LocalFileRecord.outputRecordHeader(
+                            name,
+                            ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                            LAST_MODIFIED_TIME,
+                            LAST_MODIFIED_DATE,
+                            0,
+                            0,
+                            0,
+                            ByteBuffer.allocate(0),
+                            mOutput);
+            compressed = mOutput;
+        } else {
+            buffered = new ByteArrayDataSink();
+            compressed = buffered;
+        }
+        CRC32 crc = new CRC32();
+        long uncompressedSize = 0;
+        CountingOutputStream compressedOut = new CountingOutputStream(compressed);
+        OutputStream deflateOut = createDeflateStream(compressedOut);
+        int read;
+        while ((read = data.read(mBuffer)) != -1) {
+            crc.update(mBuffer, 0, read);
+            if (inspection.sink != null) {
+                inspection.sink.consume(mBuffer, 0, read);
+            }
+            uncompressedSize += read;
+            deflateOut.write(mBuffer, 0, read);
+        }
+        deflateOut.close();
+        inspection.done();
+        long compressedSize = compressedOut.mCount;
+
+        if (buffered == null) {
+            ByteBuffer crcAndSizes =
+                    LocalFileRecord.createCrc32AndSizes(
+                            crc.getValue(), compressedSize, uncompressedSize);
+            // Same lock the output sink takes, it seeks back to its own position on every write
+            synchronized (mOutputFile) {
+                mOutputFile.seek(
+                        localFileHeaderOffset + LocalFileRecord.getCrc32OffsetInRecord());
+                mOutputFile.write(crcAndSizes.array(), 0, crcAndSizes.remaining());
+            }
+        } else {
+            mOutputOffset +=
+                    LocalFileRecord.outputRecordHeader(
+                            name,
+                            ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                            LAST_MODIFIED_TIME,
+                            LAST_MODIFIED_DATE,
+                            crc.getValue(),
+                            compressedSize,
+                            uncompressedSize,
+                            ByteBuffer.allocate(0),
+                            mOutput);
+            buffered.feed(0, compressedSize, mOutput);
+        }
+        mOutputOffset += compressedSize;
+
+        mCdRecords.add(
+                CentralDirectoryRecord.createWithData(
+                        name,
+                        ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                        LAST_MODIFIED_TIME,
+                        LAST_MODIFIED_DATE,
+                        crc.getValue(),
+                        compressedSize,
+                        uncompressedSize,
+                        localFileHeaderOffset));
+    }
+
+    /**
+     * Outputs an entry whose data is already deflate-compressed, without recompressing it. The
+     * compressed data is read from {@code compressedData} until EOF. It is only inflated if the
+     * signer engine needs to inspect the entry.
+     *
+     * @throws IOException if the data does not match the provided sizes or CRC-32
+     */
+    public void outputDeflateCompressedEntry(
+            String name,
+            long crc32,
+            long compressedSize,
+            long uncompressedSize,
+            InputStream compressedData)
+            throws IOException, ApkFormatException {
+        EntryInspection inspection = beginEntry(name);
+        if ((!inspection.output) && (inspection.sink == null)) {
+            return;
+        }
+
+        long localFileHeaderOffset = mOutputOffset;
+        if (inspection.output) {
+            mOutputOffset +=
+                    LocalFileRecord.outputRecordHeader(
+                            name,
+                            ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                            LAST_MODIFIED_TIME,
+                            LAST_MODIFIED_DATE,
+                            crc32,
+                            compressedSize,
+                            uncompressedSize,
+                            ByteBuffer.allocate(0),
+                            mOutput);
+        }
+
+        Inflater inflater = (inspection.sink != null) ? new Inflater(true) : null;
+        CRC32 crc = (inflater != null) ? new CRC32() : null;
+        long written = 0;
+        long inflatedSize = 0;
+        try {
+            int read;
+            while ((read = compressedData.read(mBuffer)) != -1) {
+                if (inspection.output) {
+                    mOutput.consume(mBuffer, 0, read);
+                }
+                written += read;
+                if (inflater == null) {
+                    continue;
+                }
+                inflater.setInput(mBuffer, 0, read);
+                while (!inflater.needsInput() && !inflater.finished()) {
+                    int inflated = inflater.inflate(mCodecBuffer);
+                    if ((inflated == 0) && inflater.needsDictionary()) {
+                        throw new ApkFormatException("Malformed ZIP entry: " + name);
+                    }
+                    crc.update(mCodecBuffer, 0, inflated);
+                    inspection.sink.consume(mCodecBuffer, 0, inflated);
+                    inflatedSize += inflated;
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ApkFormatException("Malformed ZIP entry: " + name, e);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+        if (written != compressedSize) {
+            throw new IOException(
+                    name + ": expected " + compressedSize + " compressed bytes, got " + written);
+        }
+        if (crc != null) {
+            checkEntry(name, crc32, uncompressedSize, crc.getValue(), inflatedSize);
+        }
+        inspection.done();
+        if (!inspection.output) {
+            return;
+        }
+        mOutputOffset += written;
+
+        mCdRecords.add(
+                CentralDirectoryRecord.createWithData(
+                        name,
+                        ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                        LAST_MODIFIED_TIME,
+                        LAST_MODIFIED_DATE,
+                        crc32,
+                        compressedSize,
+                        uncompressedSize,
+                        localFileHeaderOffset));
+    }
+
+    /**
+     * Outputs the JAR signature, the APK Signing Block, the ZIP Central Directory and the ZIP End
+     * of Central Directory record. No entries can be output afterwards.
+     */
+    public void finish()
+            throws IOException, ApkFormatException, NoSuchAlgorithmException, InvalidKeyException,
+                    SignatureException {
+        checkNotFinished();
+        mFinished = true;
+
+        // Same as steps 8 to 12 of ApkSigner.sign
+        ApkSignerEngine.OutputJarSignatureRequest outputJarSignatureRequest =
+                mSignerEngine.outputJarEntries();
+        if (outputJarSignatureRequest != null) {
+            for (ApkSignerEngine.OutputJarSignatureRequest.JarEntry entry :
+                    outputJarSignatureRequest.getAdditionalJarEntries()) {
+                String entryName = entry.getName();
+                byte[] uncompressedData = entry.getData();
+
+                ApkSigner.requestOutputEntryInspection(
+                        mSignerEngine, entryName, uncompressedData);
+                mOutputOffset +=
+                        ApkSigner.outputDataToOutputApk(
+                                entryName,
+                                uncompressedData,
+                                mOutputOffset,
+                                mCdRecords,
+                                LAST_MODIFIED_TIME,
+                                LAST_MODIFIED_DATE,
+                                mOutput);
+            }
+            outputJarSignatureRequest.done();
+        }
+
+        long centralDirSizeBytes = 0;
+        for (CentralDirectoryRecord record : mCdRecords) {
+            centralDirSizeBytes += record.getSize();
+        }
+        if (centralDirSizeBytes > Integer.MAX_VALUE) {
+            throw new RuntimeException(
+                    "Output ZIP Central Directory too large: " + centralDirSizeBytes + " bytes");
+        }
+        ByteBuffer centralDir = ByteBuffer.allocate((int) centralDirSizeBytes);
+        for (CentralDirectoryRecord record : mCdRecords) {
+            record.copyTo(centralDir);
+        }
+        centralDir.flip();
+        DataSource centralDirDataSource = new ByteBufferDataSource(centralDir);
+        long centralDirStartOffset = mOutputOffset;
+        ByteBuffer eocd =
+                EocdRecord.create(mCdRecords.size(), centralDirSizeBytes, centralDirStartOffset);
+
+        ApkSignerEngine.OutputApkSigningBlockRequest2 outputApkSigningBlockRequest =
+                mSignerEngine.outputZipSections2(
+                        mOutputReadable.slice(0, centralDirStartOffset),
+                        centralDirDataSource,
+                        DataSources.asDataSource(eocd));
+        if (outputApkSigningBlockRequest != null) {
+            int padding = outputApkSigningBlockRequest.getPaddingSizeBeforeApkSigningBlock();
+            byte[] apkSigningBlock = outputApkSigningBlockRequest.getApkSigningBlock();
+            outputApkSigningBlockRequest.done();
+
+            mOutput.consume(ByteBuffer.allocate(padding));
+            mOutput.consume(apkSigningBlock, 0, apkSigningBlock.length);
+            ZipUtils.setZipEocdCentralDirectoryOffset(
+                    eocd, centralDirStartOffset + padding + apkSigningBlock.length);
+        }
+
+        centralDirDataSource.feed(0, centralDirDataSource.size(), mOutput);
+        mOutput.consume(eocd);
+        mSignerEngine.outputDone();
+    }
+
+    private OutputStream createDeflateStream(OutputStream out) {
+        if (mDeflateStreamFactory != null) {
+            return mDeflateStreamFactory.create(out, mCompressionLevel);
+        }
+        final Deflater deflater = new Deflater(mCompressionLevel, true);
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                // The entry's output is shared with the rest of the APK, only finish the data
+                try {
+                    finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    private EntryInspection beginEntry(String name) {
+        checkNotFinished();
+        ApkSignerEngine.InputJarEntryInstructions entryInstructions =
+                mSignerEngine.inputJarEntry(name);
+        boolean shouldOutput;
+        switch (entryInstructions.getOutputPolicy()) {
+            case OUTPUT:
+                shouldOutput = true;
+                break;
+            case OUTPUT_BY_ENGINE:
+            case SKIP:
+                shouldOutput = false;
+                break;
+            default:
+                throw new RuntimeException(
+                        "Unknown output policy: " + entryInstructions.getOutputPolicy());
+        }
+
+        ApkSignerEngine.InspectJarEntryRequest outputInspectRequest = null;
+        if (shouldOutput) {
+            if (!mOutputEntryNames.add(name)) {
+                throw new IllegalArgumentException("Duplicate entry: " + name);
+            }
+            outputInspectRequest = mSignerEngine.outputJarEntry(name);
+        }
+        return new EntryInspection(
+                shouldOutput, entryInstructions.getInspectJarEntryRequest(), outputInspectRequest);
+    }
+
+    private void checkNotFinished() {
+        if (mFinished) {
+            throw new IllegalStateException("APK already finished");
+        }
+    }
+
+    private static void checkEntry(
+            String name, long expectedCrc32, long expectedSize, long crc32, long size)
+            throws IOException {
+        if (size != expectedSize) {
+            throw new IOException(name + ": expected " + expectedSize + " bytes, got " + size);
+        }
+        if (crc32 != expectedCrc32) {
+            throw new IOException(
+                    name + ": CRC-32 mismatch, expected " + Long.toHexString(expectedCrc32)
+                            + ", got " + Long.toHexString(crc32));
+        }
+    }
+
+    /** {@link OutputStream} over a {@link DataSink} which counts the bytes written to it. */
+    private static class CountingOutputStream extends OutputStream {
+        private final DataSink mSink;
+        private long mCount;
+
+        CountingOutputStream(DataSink sink) {
+            mSink = sink;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buf, int offset, int length) throws IOException {
+            mSink.consume(buf, offset, length);
+            mCount += length;
+        }
+    }
+
+    /**
+     * What the signer engine wants done with an entry: whether to output it and which requests to
+     * inspect its uncompressed data have to be fulfilled.
+     */
+    private static class EntryInspection {
+        final boolean output;
+        /** Sink for the entry's uncompressed data, or {@code null} if nobody needs to see it. */
+        final DataSink sink;
+        private final ApkSignerEngine.InspectJarEntryRequest mInputRequest;
+        private final ApkSignerEngine.InspectJarEntryRequest mOutputRequest;
+
+        EntryInspection(
+                boolean output,
+                ApkSignerEngine.InspectJarEntryRequest inputRequest,
+                ApkSignerEngine.InspectJarEntryRequest outputRequest) {
+            this.output = output;
+            mInputRequest = inputRequest;
+            mOutputRequest = outputRequest;
+            if ((inputRequest != null) && (outputRequest != null)) {
+                sink = new TeeDataSink(
+                        new DataSink[] {inputRequest.getDataSink(), outputRequest.getDataSink()});
+            } else if (inputRequest != null) {
+                sink = inputRequest.getDataSink();
+            } else if (outputRequest != null) {
+                sink = outputRequest.getDataSink();
+            } else {
+                sink = null;
+            }
+        }
+
+        void consumeUncompressed(InputStream data, byte[] buffer) throws IOException {
+            if (sink == null) {
+                return;
+            }
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                sink.consume(buffer, 0, read);
+            }
+            done();
+        }
+
+        void done() {
+            if (mInputRequest != null) {
+                mInputRequest.done();
+            }
+            if (mOutputRequest != null) {
+                mOutputRequest.done();
+            }
+        }
+    }
+}
@@ -89,6 +89,10 @@ import javax.security.auth.x500.X500Principal;
 public class ApkSigningBlockUtils {
 
     private static final long CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES = 1024 * 1024;
+    /**
+     * Salt of the verity tree used for the {@code VERITY_CHUNKED_SHA256} content digest, all zeros.
+     */
+    private static final byte[] VERITY_SALT = new byte[8];
     public static final int ANDROID_COMMON_PAGE_ALIGNMENT_BYTES = 4096;
     private static final byte[] APK_SIGNING_BLOCK_MAGIC =
           new byte[] {
@@ -136,6 +140,33 @@ public class ApkSigningBlockUtils {
             ByteBuffer eocd,
             Set<ContentDigestAlgorithm> contentDigestAlgorithms,
             Result result) throws IOException, NoSuchAlgorithmException {
+        verifyIntegrity(
+                executor,
+                beforeApkSigningBlock,
+                centralDir,
+                eocd,
+                contentDigestAlgorithms,
+                new HashMap<>(),
+                result);
+    }
+
+    /**
+     * Same as {@link #verifyIntegrity(RunnablesExecutor, DataSource, DataSource, ByteBuffer, Set,
+     * Result)}, reusing the digests in {@code computedContentDigests} instead of computing them
+     * again. Digests this call computes are added to it.
+     *
+     * <p>The v2, v3 and v3.1 blocks of an APK are in the same APK Signing Block, so their content
+     * digests cover the same data. Passing the same map to each scheme's verification computes
+     * every content digest algorithm they have in common only once.
+     */
+    public static void verifyIntegrity(
+            RunnablesExecutor executor,
+            DataSource beforeApkSigningBlock,
+            DataSource centralDir,
+            ByteBuffer eocd,
+            Set<ContentDigestAlgorithm> contentDigestAlgorithms,
+            Map<ContentDigestAlgorithm, byte[]> computedContentDigests,
+            Result result) throws IOException, NoSuchAlgorithmException {
         if (contentDigestAlgorithms.isEmpty()) {
             // This should never occur because this method is invoked once at least one signature
             // is verified, meaning at least one content digest is known.
@@ -154,15 +185,29 @@ public class ApkSigningBlockUtils {
         // restore eocd to position prior to modification in case it is to be used elsewhere
         eocd.position(eocdSavedPos);
         ZipUtils.setZipEocdCentralDirectoryOffset(modifiedEocd, beforeApkSigningBlock.size());
-        Map<ContentDigestAlgorithm, byte[]> actualContentDigests;
+        Map<ContentDigestAlgorithm, byte[]> actualContentDigests =
+                new HashMap<>(contentDigestAlgorithms.size());
         try {
-            actualContentDigests =
-                    computeContentDigests(
-                            executor,
-                            contentDigestAlgorithms,
-                            beforeApkSigningBlock,
-                            centralDir,
-                            new ByteBufferDataSource(modifiedEocd));
+            Set<ContentDigestAlgorithm> missingContentDigestAlgorithms = new HashSet<>(1);
+            for (ContentDigestAlgorithm contentDigestAlgorithm : contentDigestAlgorithms) {
+                byte[] computed = computedContentDigests.get(contentDigestAlgorithm);
+                if (computed != null) {
+                    actualContentDigests.put(contentDigestAlgorithm, computed);
+                } else {
+                    missingContentDigestAlgorithms.add(contentDigestAlgorithm);
+                }
+            }
+            if (!missingContentDigestAlgorithms.isEmpty()) {
+                Map<ContentDigestAlgorithm, byte[]> computed =
+                        computeContentDigests(
+                                executor,
+                                missingContentDigestAlgorithms,
+                                beforeApkSigningBlock,
+                                centralDir,
+                                new ByteBufferDataSource(modifiedEocd));
+                actualContentDigests.putAll(computed);
+                computedContentDigests.putAll(computed);
+            }
             // Special checks for the verity algorithm requirements.
             if (actualContentDigests.containsKey(VERITY_CHUNKED_SHA256)) {
                 if ((beforeApkSigningBlock.size() % ANDROID_COMMON_PAGE_ALIGNMENT_BYTES != 0)) {
@@ -270,13 +315,33 @@ public class ApkSigningBlockUtils {
                 oneMbChunkBasedAlgorithm.add(digestAlgorithm);
             }
         }
+        // The bottom level of the verity tree is digested in the same pass over the APK as the 1 MB
+        // chunks. That needs the data before the Central Directory to be page aligned, which verity
+        // requires anyway; otherwise leave it to VerityTreeBuilder to report the problem.
+        boolean verity = digestAlgorithms.contains(VERITY_CHUNKED_SHA256);
+        byte[] verityChunkDigests = null;
+        if (verity && beforeCentralDir.size() % ANDROID_COMMON_PAGE_ALIGNMENT_BYTES == 0) {
+            long verityChunkCount = getChunkCount(
+                    beforeCentralDir.size() + centralDir.size() + eocd.size(),
+                    ANDROID_COMMON_PAGE_ALIGNMENT_BYTES);
+            long verityLevelSize =
+                    verityChunkCount * VERITY_CHUNKED_SHA256.getChunkDigestOutputSizeBytes();
+            if (verityLevelSize > Integer.MAX_VALUE) {
+                throw new DigestException("Input too long: " + verityChunkCount + " pages");
+            }
+            verityChunkDigests = new byte[(int) verityLevelSize];
+        }
         computeOneMbChunkContentDigests(
                 executor,
                 oneMbChunkBasedAlgorithm,
                 new DataSource[] { beforeCentralDir, centralDir, eocd },
-                contentDigests);
+                contentDigests,
+                verityChunkDigests);
 
-        if (digestAlgorithms.contains(VERITY_CHUNKED_SHA256)) {
+        if (verityChunkDigests != null) {
+            computeApkVerityDigest(beforeCentralDir, centralDir, eocd, verityChunkDigests,
+                    contentDigests);
+        } else if (verity) {
             computeApkVerityDigest(beforeCentralDir, centralDir, eocd, contentDigests);
         }
         return contentDigests;
@@ -391,6 +456,25 @@ public class ApkSigningBlockUtils {
             DataSource[] contents,
             Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
             throws NoSuchAlgorithmException, DigestException {
+        computeOneMbChunkContentDigests(
+                executor, digestAlgorithms, contents, outputContentDigests, null);
+    }
+
+    /**
+     * Computes the 1 MB chunk based digests of {@code contents} with the workers of
+     * {@code executor}. Each worker claims the next unprocessed chunk, so faster workers simply
+     * process more chunks.
+     *
+     * @param verityChunkDigests if not {@code null}, also receives the salted SHA-256 digest of
+     *        every 4 KB page of {@code contents[0]}, which must be page aligned, in the same pass
+     */
+    static void computeOneMbChunkContentDigests(
+            RunnablesExecutor executor,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource[] contents,
+            Map<ContentDigestAlgorithm, byte[]> outputContentDigests,
+            byte[] verityChunkDigests)
+            throws NoSuchAlgorithmException, DigestException {
         long chunkCountLong = 0;
         for (DataSource input : contents) {
             chunkCountLong +=
@@ -407,7 +491,8 @@ public class ApkSigningBlockUtils {
         }
 
         ChunkSupplier chunkSupplier = new ChunkSupplier(contents);
-        executor.execute(() -> new ChunkDigester(chunkSupplier, chunkDigestsList));
+        executor.execute(
+                () -> new ChunkDigester(chunkSupplier, chunkDigestsList, verityChunkDigests));
 
         // Compute and write out final digest for each algorithm.
         for (ChunkDigests chunkDigests : chunkDigestsList) {
@@ -451,10 +536,16 @@ public class ApkSigningBlockUtils {
         private final List<ChunkDigests> chunkDigests;
         private final List<MessageDigest> messageDigests;
         private final DataSink mdSink;
+        private final byte[] verityChunkDigests;
+        private MessageDigest verityMd;
+        // Allocated on the first chunk, workers that never get a chunk don't need one.
+        private ByteBuffer buffer;
 
-        private ChunkDigester(ChunkSupplier dataSupplier, List<ChunkDigests> chunkDigests) {
+        private ChunkDigester(ChunkSupplier dataSupplier, List<ChunkDigests> chunkDigests,
+                byte[] verityChunkDigests) {
             this.dataSupplier = dataSupplier;
             this.chunkDigests = chunkDigests;
+            this.verityChunkDigests = verityChunkDigests;
             messageDigests = new ArrayList<>(chunkDigests.size());
             for (ChunkDigests chunkDigest : chunkDigests) {
                 try {
@@ -472,14 +563,18 @@ public class ApkSigningBlockUtils {
             chunkContentPrefix[0] = (byte) 0xa5;
 
             try {
-                for (ChunkSupplier.Chunk chunk = dataSupplier.get();
+                for (ChunkSupplier.Chunk chunk = dataSupplier.get(this::getBuffer);
                      chunk != null;
-                     chunk = dataSupplier.get()) {
+                     chunk = dataSupplier.get(this::getBuffer)) {
                     int size = chunk.size;
                     if (size > CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES) {
                         throw new RuntimeException("Chunk size greater than expected: " + size);
                     }
 
+                    if (verityChunkDigests != null && chunk.dataSourceIndex == 0) {
+                        digestVerityPages(chunk);
+                    }
+
                     // First update with the chunk prefix.
                     setUnsignedInt32LittleEndian(size, chunkContentPrefix, 1);
                     mdSink.consume(chunkContentPrefix, 0, chunkContentPrefix.length);
@@ -505,6 +600,39 @@ public class ApkSigningBlockUtils {
                 throw new RuntimeException(e);
             }
         }
+
+        private ByteBuffer getBuffer() {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate((int) CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
+            }
+            return buffer;
+        }
+
+        /**
+         * Digests each 4 KB page of the chunk into the bottom level of the verity tree, using the
+         * same all-zero salt as {@link #computeApkVerityDigest}.
+         */
+        private void digestVerityPages(ChunkSupplier.Chunk chunk) throws DigestException {
+            if (verityMd == null) {
+                try {
+                    verityMd = MessageDigest.getInstance(
+                            VERITY_CHUNKED_SHA256.getJcaMessageDigestAlgorithm());
+                } catch (NoSuchAlgorithmException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            int digestSize = VERITY_CHUNKED_SHA256.getChunkDigestOutputSizeBytes();
+            int page = (int) (chunk.dataSourceOffset / ANDROID_COMMON_PAGE_ALIGNMENT_BYTES);
+            ByteBuffer data = chunk.data.duplicate();
+            for (int offset = 0; offset < chunk.size;
+                    offset += ANDROID_COMMON_PAGE_ALIGNMENT_BYTES, page++) {
+                data.limit(offset + ANDROID_COMMON_PAGE_ALIGNMENT_BYTES);
+                data.position(offset);
+                verityMd.update(VERITY_SALT);
+                verityMd.update(data);
+                verityMd.digest(verityChunkDigests, page * digestSize, digestSize);
+            }
+        }
     }
 
     /**
@@ -513,7 +641,7 @@ public class ApkSigningBlockUtils {
      * are NOT concatenated. Only the next call to get() will fetch from the
      * next {@link DataSource} in the input {@link DataSource} array.
      */
-    private static class ChunkSupplier implements SupplierCompat<ChunkSupplier.Chunk> {
+    private static class ChunkSupplier {
         private final DataSource[] dataSources;
         private final int[] chunkCounts;
         private final int totalChunkCount;
@@ -545,8 +673,7 @@ public class ApkSigningBlockUtils {
          * blocks in each input {@link DataSource} (unless the DataSource itself is
          * 1MB-aligned).
          */
-        @Override
-        public ChunkSupplier.Chunk get() {
+        public ChunkSupplier.Chunk get(SupplierCompat<ByteBuffer> bufferSupplier) {
             int index = nextIndex.getAndIncrement();
             if (index < 0 || index >= totalChunkCount) {
                 return null;
@@ -567,26 +694,33 @@ public class ApkSigningBlockUtils {
                     CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES);
 
             final int size = (int)remainingSize;
-            final ByteBuffer buffer = ByteBuffer.allocate(size);
+            final long offset = dataSourceChunkOffset * CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES;
+            // The buffer is the worker's own and is reused for each of its chunks.
+            final ByteBuffer buffer = bufferSupplier.get();
+            buffer.clear();
+            buffer.limit(size);
             try {
-                dataSources[dataSourceIndex].copyTo(
-                        dataSourceChunkOffset * CONTENT_DIGESTED_CHUNK_MAX_SIZE_BYTES, size,
-                        buffer);
+                dataSources[dataSourceIndex].copyTo(offset, size, buffer);
             } catch (IOException e) {
                 throw new IllegalStateException("Failed to read chunk", e);
             }
-            buffer.rewind();
+            buffer.flip();
 
-            return new Chunk(index, buffer, size);
+            return new Chunk(index, dataSourceIndex, offset, buffer, size);
         }
 
         static class Chunk {
             private final int chunkIndex;
+            private final int dataSourceIndex;
+            private final long dataSourceOffset;
             private final ByteBuffer data;
             private final int size;
 
-            private Chunk(int chunkIndex, ByteBuffer data, int size) {
+            private Chunk(int chunkIndex, int dataSourceIndex, long dataSourceOffset,
+                    ByteBuffer data, int size) {
                 this.chunkIndex = chunkIndex;
+                this.dataSourceIndex = dataSourceIndex;
+                this.dataSourceOffset = dataSourceOffset;
                 this.data = data;
                 this.size = size;
             }
@@ -609,6 +743,55 @@ public class ApkSigningBlockUtils {
         }
     }
 
+    /**
+     * Same as {@link #computeApkVerityDigest(DataSource, DataSource, DataSource, Map)} for when the
+     * digests of the pages before the Central Directory were computed along with the 1 MB chunk
+     * digests. Only the Central Directory and EoCD, which are small, are read here.
+     */
+    @SuppressWarnings("ByteBufferBackingArray")
+    private static void computeApkVerityDigest(DataSource beforeCentralDir, DataSource centralDir,
+            DataSource eocd, byte[] verityChunkDigests,
+            Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
+            throws IOException, NoSuchAlgorithmException {
+        // Same as in VerityTreeBuilder, the EoCD's Central Directory offset must point to where the
+        // APK Signing Block starts.
+        ByteBuffer eocdBuf = ByteBuffer.allocate((int) eocd.size());
+        eocdBuf.order(ByteOrder.LITTLE_ENDIAN);
+        eocd.copyTo(0, (int) eocd.size(), eocdBuf);
+        eocdBuf.flip();
+        ZipUtils.setZipEocdCentralDirectoryOffset(eocdBuf, beforeCentralDir.size());
+        DataSource tail = new ChainedDataSource(centralDir, DataSources.asDataSource(eocdBuf));
+
+        MessageDigest md = MessageDigest.getInstance(
+                VERITY_CHUNKED_SHA256.getJcaMessageDigestAlgorithm());
+        int digestSize = VERITY_CHUNKED_SHA256.getChunkDigestOutputSizeBytes();
+        int page = (int) (beforeCentralDir.size() / ANDROID_COMMON_PAGE_ALIGNMENT_BYTES);
+        ByteBuffer pageBuf = ByteBuffer.allocate(ANDROID_COMMON_PAGE_ALIGNMENT_BYTES);
+        for (long offset = 0; offset < tail.size();
+                offset += ANDROID_COMMON_PAGE_ALIGNMENT_BYTES, page++) {
+            int size = (int) Math.min(ANDROID_COMMON_PAGE_ALIGNMENT_BYTES, tail.size() - offset);
+            // The last page is zero padded.
+            Arrays.fill(pageBuf.array(), (byte) 0);
+            pageBuf.clear();
+            tail.copyTo(offset, size, pageBuf);
+            md.update(VERITY_SALT);
+            md.update(pageBuf.array());
+            try {
+                md.digest(verityChunkDigests, page * digestSize, digestSize);
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        ByteBuffer encoded = createVerityDigestBuffer(true);
+        long dataSize = beforeCentralDir.size() + centralDir.size() + eocd.size();
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(VERITY_SALT)) {
+            encoded.put(builder.generateVerityTreeRootHash(dataSize, verityChunkDigests));
+            encoded.putLong(dataSize);
+            outputContentDigests.put(VERITY_CHUNKED_SHA256, encoded.array());
+        }
+    }
+
     private static ByteBuffer createVerityDigestBuffer(boolean includeSourceDataSize) {
         // FORMAT:
         // OFFSET       DATA TYPE  DESCRIPTION
@@ -1033,24 +1216,49 @@ public class ApkSigningBlockUtils {
                     DataSource eocd,
                     List<SignerConfig> signerConfigs)
                             throws IOException, NoSuchAlgorithmException, SignatureException {
+        return computeContentDigests(
+                executor, beforeCentralDir, centralDir, eocd, signerConfigs, null);
+    }
+
+    /**
+     * Computes the digests of the given APK components according to the algorithms specified in the
+     * given SignerConfigs, taking the ones already computed for another signature scheme from
+     * {@code contentDigestCache}.
+     *
+     * @param contentDigestCache digests shared with the other schemes signing the same APK, or
+     *        {@code null} to always compute them
+     *
+     * @see #computeContentDigests(RunnablesExecutor, DataSource, DataSource, DataSource, List)
+     */
+    public static Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>>
+            computeContentDigests(
+                    RunnablesExecutor executor,
+                    DataSource beforeCentralDir,
+                    DataSource centralDir,
+                    DataSource eocd,
+                    List<SignerConfig> signerConfigs,
+                    ContentDigestCache contentDigestCache)
+                            throws IOException, NoSuchAlgorithmException, SignatureException {
         if (signerConfigs.isEmpty()) {
             throw new IllegalArgumentException(
                     "No signer configs provided. At least one is required");
         }
 
         // Figure out which digest(s) to use for APK contents.
-        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>(1);
-        for (SignerConfig signerConfig : signerConfigs) {
-            for (SignatureAlgorithm signatureAlgorithm : signerConfig.signatureAlgorithms) {
-                contentDigestAlgorithms.add(signatureAlgorithm.getContentDigestAlgorithm());
-            }
-        }
+        Set<ContentDigestAlgorithm> contentDigestAlgorithms =
+                getContentDigestAlgorithms(signerConfigs);
 
         // Compute digests of APK contents.
         Map<ContentDigestAlgorithm, byte[]> contentDigests; // digest algorithm ID -> digest
         try {
-            contentDigests =
-                    computeContentDigests(
+            contentDigests = (contentDigestCache != null)
+                    ? contentDigestCache.getContentDigests(
+                            executor,
+                            contentDigestAlgorithms,
+                            beforeCentralDir,
+                            centralDir,
+                            eocd)
+                    : computeContentDigests(
                             executor,
                             contentDigestAlgorithms,
                             beforeCentralDir,
@@ -1066,6 +1274,21 @@ public class ApkSigningBlockUtils {
         return Pair.of(signerConfigs, contentDigests);
     }
 
+    /**
+     * Returns the content digest algorithms needed by the signature algorithms of the given
+     * signers.
+     */
+    public static Set<ContentDigestAlgorithm> getContentDigestAlgorithms(
+            List<SignerConfig> signerConfigs) {
+        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>(1);
+        for (SignerConfig signerConfig : signerConfigs) {
+            for (SignatureAlgorithm signatureAlgorithm : signerConfig.signatureAlgorithms) {
+                contentDigestAlgorithms.add(signatureAlgorithm.getContentDigestAlgorithm());
+            }
+        }
+        return contentDigestAlgorithms;
+    }
+
     /**
      * Returns the subset of signatures which are expected to be verified by at least one Android
      * platform version in the {@code [minSdkVersion, maxSdkVersion]} range. The returned result is
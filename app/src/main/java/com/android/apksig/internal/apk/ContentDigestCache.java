@@ -0,0 +1,68 @@
+package com.android.apksig.internal.apk;
+
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
+
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content digests of an APK being signed, shared by the signature schemes so that the v2, v3 and
+ * v3.1 blocks are all signed from a single read of the APK instead of one read each.
+ *
+ * <p>Digests are keyed by {@link ContentDigestAlgorithm} and by the identity of the three
+ * {@link DataSource}s they were computed from. Asking for the digests of different data sources
+ * discards the cached ones.
+ */
+public class ContentDigestCache {
+    private final Map<ContentDigestAlgorithm, byte[]> mDigests = new HashMap<>();
+    private DataSource mBeforeCentralDir;
+    private DataSource mCentralDir;
+    private DataSource mEocd;
+
+    /**
+     * Returns the digests of the given APK sections for {@code digestAlgorithms}, computing only
+     * the ones not already cached. The missing algorithms are all computed in one pass.
+     */
+    public synchronized Map<ContentDigestAlgorithm, byte[]> getContentDigests(
+            RunnablesExecutor executor,
+            Set<ContentDigestAlgorithm> digestAlgorithms,
+            DataSource beforeCentralDir,
+            DataSource centralDir,
+            DataSource eocd) throws IOException, NoSuchAlgorithmException, DigestException {
+        if (beforeCentralDir != mBeforeCentralDir || centralDir != mCentralDir
+                || eocd != mEocd) {
+            mDigests.clear();
+            mBeforeCentralDir = beforeCentralDir;
+            mCentralDir = centralDir;
+            mEocd = eocd;
+        }
+        Set<ContentDigestAlgorithm> missing = new HashSet<>(digestAlgorithms);
+        missing.removeAll(mDigests.keySet());
+        if (!missing.isEmpty()) {
+            mDigests.putAll(ApkSigningBlockUtils.computeContentDigests(
+                    executor, missing, beforeCentralDir, centralDir, eocd));
+        }
+        // Only the requested ones, the caller may pass them on as the digests of its scheme
+        Map<ContentDigestAlgorithm, byte[]> result = new HashMap<>(digestAlgorithms.size());
+        for (ContentDigestAlgorithm digestAlgorithm : digestAlgorithms) {
+            result.put(digestAlgorithm, mDigests.get(digestAlgorithm));
+        }
+        return result;
+    }
+
+    /**
+     * Drops the cached digests and the references to the data sources they were computed from.
+     */
+    public synchronized void clear() {
+        mDigests.clear();
+        mBeforeCentralDir = null;
+        mCentralDir = null;
+        mEocd = null;
+    }
+}
@@ -55,6 +55,7 @@ import com.android.apksig.internal.zip.LocalFileRecord;
 import com.android.apksig.internal.zip.ZipUtils;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.IOException;
@@ -82,6 +83,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 
 /**
@@ -92,6 +94,9 @@ import java.util.jar.Attributes;
 public abstract class V1SchemeVerifier {
     private V1SchemeVerifier() {}
 
+    /** Compressed bytes of JAR entries a worker digests before taking the next range. */
+    private static final long DIGEST_RANGE_SIZE = 1024 * 1024;
+
     /**
      * Verifies the provided APK's JAR signatures and returns the result of verification. APK is
      * considered verified only if {@link Result#verified} is {@code true}. If verification fails,
@@ -115,6 +120,31 @@ public abstract class V1SchemeVerifier {
             Set<Integer> foundApkSigSchemeIds,
             int minSdkVersion,
             int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        return verify(
+                apk,
+                apkSections,
+                supportedApkSigSchemeNames,
+                foundApkSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion,
+                RunnablesExecutor.SINGLE_THREADED);
+    }
+
+    /**
+     * Same as {@link #verify(DataSource, ApkUtils.ZipSections, Map, Set, int, int)}, with the
+     * JAR entries inflated and digested by the workers of {@code executor}. Each worker takes
+     * contiguous ranges of entries in local file header order, so reads stay sequential within a
+     * range. Errors are reported in the same order as when verifying on one thread.
+     */
+    public static Result verify(
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundApkSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion,
+            RunnablesExecutor executor)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException {
         if (minSdkVersion > maxSdkVersion) {
             throw new IllegalArgumentException(
                     "minSdkVersion (" + minSdkVersion + ") > maxSdkVersion (" + maxSdkVersion
@@ -140,6 +170,7 @@ public abstract class V1SchemeVerifier {
                 foundApkSigSchemeIds,
                 minSdkVersion,
                 maxSdkVersion,
+                executor,
                 result);
 
         return result;
@@ -225,6 +256,7 @@ public abstract class V1SchemeVerifier {
                 Set<Integer> foundApkSigSchemeIds,
                 int minSdkVersion,
                 int maxSdkVersion,
+                RunnablesExecutor executor,
                 Result result) throws ApkFormatException, IOException, NoSuchAlgorithmException {
 
             // Find JAR manifest and signature block files.
@@ -376,6 +408,7 @@ public abstract class V1SchemeVerifier {
                             signers,
                             minSdkVersion,
                             maxSdkVersion,
+                            executor,
                             result);
             if (result.containsErrors()) {
                 return;
@@ -1290,6 +1323,7 @@ public abstract class V1SchemeVerifier {
             List<Signer> signers,
             int minSdkVersion,
             int maxSdkVersion,
+            RunnablesExecutor executor,
             Result result) throws ApkFormatException, IOException, NoSuchAlgorithmException {
         // Iterate over APK contents as sequentially as possible to improve performance.
         List<CentralDirectoryRecord> cdRecordsSortedByLocalFileHeaderOffset =
@@ -1297,6 +1331,9 @@ public abstract class V1SchemeVerifier {
         Collections.sort(
                 cdRecordsSortedByLocalFileHeaderOffset,
                 CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+        // Check every entry against the manifest and signers first, then digest the entries which
+        // passed, then report everything in entry order.
+        List<JarEntryCheck> checks = new ArrayList<>(cdRecordsSortedByLocalFileHeaderOffset.size());
         List<Signer> firstSignedEntrySigners = null;
         String firstSignedEntryName = null;
         for (CentralDirectoryRecord cdRecord : cdRecordsSortedByLocalFileHeaderOffset) {
@@ -1307,7 +1344,8 @@ public abstract class V1SchemeVerifier {
 
             ManifestParser.Section manifestSection = entryNameToManifestSection.get(entryName);
             if (manifestSection == null) {
-                result.addError(Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName);
+                checks.add(new JarEntryCheck(
+                        Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName));
                 continue;
             }
 
@@ -1318,19 +1356,19 @@ public abstract class V1SchemeVerifier {
                 }
             }
             if (entrySigners.isEmpty()) {
-                result.addError(Issue.JAR_SIG_ZIP_ENTRY_NOT_SIGNED, entryName);
+                checks.add(new JarEntryCheck(Issue.JAR_SIG_ZIP_ENTRY_NOT_SIGNED, entryName));
                 continue;
             }
             if (firstSignedEntrySigners == null) {
                 firstSignedEntrySigners = entrySigners;
                 firstSignedEntryName = entryName;
             } else if (!entrySigners.equals(firstSignedEntrySigners)) {
-                result.addError(
+                checks.add(new JarEntryCheck(
                         Issue.JAR_SIG_ZIP_ENTRY_SIGNERS_MISMATCH,
                         firstSignedEntryName,
                         getSignerNames(firstSignedEntrySigners),
                         entryName,
-                        getSignerNames(entrySigners));
+                        getSignerNames(entrySigners)));
                 continue;
             }
 
@@ -1339,30 +1377,28 @@ public abstract class V1SchemeVerifier {
                             getDigestsToVerify(
                                     manifestSection, "-Digest", minSdkVersion, maxSdkVersion));
             if (expectedDigests.isEmpty()) {
-                result.addError(Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName);
+                checks.add(new JarEntryCheck(
+                        Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName));
                 continue;
             }
-
-            MessageDigest[] mds = new MessageDigest[expectedDigests.size()];
-            for (int i = 0; i < expectedDigests.size(); i++) {
-                mds[i] = getMessageDigest(expectedDigests.get(i).jcaDigestAlgorithm);
+            for (NamedDigest expectedDigest : expectedDigests) {
+                // Fail here rather than on a worker
+                getMessageDigest(expectedDigest.jcaDigestAlgorithm);
             }
+            checks.add(new JarEntryCheck(cdRecord, expectedDigests));
+        }
 
-            try {
-                LocalFileRecord.outputUncompressedData(
-                        apk,
-                        cdRecord,
-                        cdOffsetInApk,
-                        DataSinks.asDataSink(mds));
-            } catch (ZipFormatException e) {
-                throw new ApkFormatException("Malformed ZIP entry: " + entryName, e);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to read entry: " + entryName, e);
-            }
+        digestJarEntries(apk, cdOffsetInApk, checks, executor);
 
-            for (int i = 0; i < expectedDigests.size(); i++) {
-                NamedDigest expectedDigest = expectedDigests.get(i);
-                byte[] actualDigest = mds[i].digest();
+        for (JarEntryCheck check : checks) {
+            if (check.issue != null) {
+                result.addError(check.issue, check.issueParameters);
+                continue;
+            }
+            String entryName = check.cdRecord.getName();
+            for (int i = 0; i < check.expectedDigests.size(); i++) {
+                NamedDigest expectedDigest = check.expectedDigests.get(i);
+                byte[] actualDigest = check.actualDigests[i];
                 if (!Arrays.equals(expectedDigest.digest, actualDigest)) {
                     result.addError(
                             Issue.JAR_SIG_ZIP_ENTRY_DIGEST_DID_NOT_VERIFY,
@@ -1383,6 +1419,54 @@ public abstract class V1SchemeVerifier {
         }
     }
 
+    /**
+     * Computes the digests of the entries in {@code checks} which have expected digests. The
+     * entries are split into contiguous ranges of about {@link #DIGEST_RANGE_SIZE} compressed
+     * bytes, which the workers of {@code executor} take one at a time.
+     */
+    private static void digestJarEntries(
+            DataSource apk,
+            long cdOffsetInApk,
+            List<JarEntryCheck> checks,
+            RunnablesExecutor executor) throws ApkFormatException, IOException {
+        List<List<JarEntryCheck>> ranges = new ArrayList<>();
+        List<JarEntryCheck> range = null;
+        long rangeSize = 0;
+        for (JarEntryCheck check : checks) {
+            if (check.cdRecord == null) {
+                continue;
+            }
+            if (range == null || rangeSize >= DIGEST_RANGE_SIZE) {
+                range = new ArrayList<>();
+                ranges.add(range);
+                rangeSize = 0;
+            }
+            range.add(check);
+            rangeSize += check.cdRecord.getCompressedSize();
+        }
+        if (ranges.isEmpty()) {
+            return;
+        }
+
+        AtomicInteger nextRange = new AtomicInteger();
+        try {
+            executor.execute(() -> () -> {
+                int rangeIndex;
+                while ((rangeIndex = nextRange.getAndIncrement()) < ranges.size()) {
+                    for (JarEntryCheck check : ranges.get(rangeIndex)) {
+                        check.digest(apk, cdOffsetInApk);
+                    }
+                }
+            });
+        } catch (JarEntryDigestException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ZipFormatException) {
+                throw new ApkFormatException(e.getMessage(), cause);
+            }
+            throw new RuntimeException(e.getMessage(), cause);
+        }
+    }
+
     private static List<String> getSignerNames(List<Signer> signers) {
         if (signers.isEmpty()) {
             return Collections.emptyList();
@@ -1410,6 +1494,66 @@ public abstract class V1SchemeVerifier {
         return getMessageDigest(algorithm).digest(data);
     }
 
+    /**
+     * A JAR entry which either failed a check against the manifest and signers, or has digests to
+     * verify.
+     */
+    private static class JarEntryCheck {
+        private final Issue issue;
+        private final Object[] issueParameters;
+        private final CentralDirectoryRecord cdRecord;
+        private final List<NamedDigest> expectedDigests;
+        private byte[][] actualDigests;
+
+        private JarEntryCheck(Issue issue, Object... issueParameters) {
+            this.issue = issue;
+            this.issueParameters = issueParameters;
+            this.cdRecord = null;
+            this.expectedDigests = null;
+        }
+
+        private JarEntryCheck(
+                CentralDirectoryRecord cdRecord, List<NamedDigest> expectedDigests) {
+            this.issue = null;
+            this.issueParameters = null;
+            this.cdRecord = cdRecord;
+            this.expectedDigests = expectedDigests;
+        }
+
+        private void digest(DataSource apk, long cdOffsetInApk) {
+            String entryName = cdRecord.getName();
+            MessageDigest[] mds = new MessageDigest[expectedDigests.size()];
+            try {
+                for (int i = 0; i < expectedDigests.size(); i++) {
+                    mds[i] = getMessageDigest(expectedDigests.get(i).jcaDigestAlgorithm);
+                }
+                LocalFileRecord.outputUncompressedData(
+                        apk,
+                        cdRecord,
+                        cdOffsetInApk,
+                        DataSinks.asDataSink(mds));
+            } catch (ZipFormatException e) {
+                throw new JarEntryDigestException("Malformed ZIP entry: " + entryName, e);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new JarEntryDigestException("Failed to read entry: " + entryName, e);
+            }
+            byte[][] digests = new byte[mds.length][];
+            for (int i = 0; i < mds.length; i++) {
+                digests[i] = mds[i].digest();
+            }
+            actualDigests = digests;
+        }
+    }
+
+    /** Carries a failure to digest a JAR entry out of a worker. */
+    private static class JarEntryDigestException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private JarEntryDigestException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
     public static class NamedDigest {
         public final String jcaDigestAlgorithm;
         public final byte[] digest;
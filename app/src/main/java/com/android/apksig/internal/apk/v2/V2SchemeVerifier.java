@@ -46,6 +46,7 @@ import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -94,6 +95,33 @@ public abstract class V2SchemeVerifier {
             int maxSdkVersion)
             throws IOException, ApkFormatException, NoSuchAlgorithmException,
             ApkSigningBlockUtils.SignatureNotFoundException {
+        return verify(
+                executor,
+                apk,
+                zipSections,
+                supportedApkSigSchemeNames,
+                foundSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion,
+                new HashMap<>(1));
+    }
+
+    /**
+     * Same as {@link #verify(RunnablesExecutor, DataSource, ApkUtils.ZipSections, Map, Set, int,
+     * int)}, reusing the content digests in {@code computedContentDigests}, for example the ones
+     * computed while verifying the APK's v3 signatures. Digests computed here are added to it.
+     */
+    public static ApkSigningBlockUtils.Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            ApkUtils.ZipSections zipSections,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion,
+            Map<ContentDigestAlgorithm, byte[]> computedContentDigests)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException,
+            ApkSigningBlockUtils.SignatureNotFoundException {
         ApkSigningBlockUtils.Result result = new ApkSigningBlockUtils.Result(
                 ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
         SignatureInfo signatureInfo =
@@ -116,6 +144,7 @@ public abstract class V2SchemeVerifier {
                 foundSigSchemeIds,
                 minSdkVersion,
                 maxSdkVersion,
+                computedContentDigests,
                 result);
         return result;
     }
@@ -139,6 +168,7 @@ public abstract class V2SchemeVerifier {
             Set<Integer> foundSigSchemeIds,
             int minSdkVersion,
             int maxSdkVersion,
+            Map<ContentDigestAlgorithm, byte[]> computedContentDigests,
             ApkSigningBlockUtils.Result result)
             throws IOException, NoSuchAlgorithmException {
         Set<ContentDigestAlgorithm> contentDigestsToVerify = new HashSet<>(1);
@@ -154,7 +184,13 @@ public abstract class V2SchemeVerifier {
             return;
         }
         ApkSigningBlockUtils.verifyIntegrity(
-                executor, beforeApkSigningBlock, centralDir, eocd, contentDigestsToVerify, result);
+                executor,
+                beforeApkSigningBlock,
+                centralDir,
+                eocd,
+                contentDigestsToVerify,
+                computedContentDigests,
+                result);
         if (!result.containsErrors()) {
             result.verified = true;
         }
@@ -27,6 +27,7 @@ import com.android.apksig.internal.apk.ApkSigningBlockUtils;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils.SignerConfig;
 import com.android.apksig.internal.apk.ApkSigningBlockUtils.SigningSchemeBlockAndDigests;
 import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.internal.apk.ContentDigestCache;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.compat.OptionalIntCompat;
 import com.android.apksig.internal.util.Pair;
@@ -72,6 +73,7 @@ public class V3SchemeSigner {
     private final int mBlockId;
     private final OptionalIntCompat mOptionalRotationMinSdkVersion;
     private final boolean mRotationTargetsDevRelease;
+    private final ContentDigestCache mContentDigestCache;
 
     private V3SchemeSigner(DataSource beforeCentralDir,
             DataSource centralDir,
@@ -80,7 +82,8 @@ public class V3SchemeSigner {
             RunnablesExecutor executor,
             int blockId,
             OptionalIntCompat optionalRotationMinSdkVersion,
-            boolean rotationTargetsDevRelease) {
+            boolean rotationTargetsDevRelease,
+            ContentDigestCache contentDigestCache) {
         mBeforeCentralDir = beforeCentralDir;
         mCentralDir = centralDir;
         mEocd = eocd;
@@ -89,6 +92,7 @@ public class V3SchemeSigner {
         mBlockId = blockId;
         mOptionalRotationMinSdkVersion = optionalRotationMinSdkVersion;
         mRotationTargetsDevRelease = rotationTargetsDevRelease;
+        mContentDigestCache = contentDigestCache;
     }
 
     /**
@@ -228,8 +232,8 @@ public class V3SchemeSigner {
     public SigningSchemeBlockAndDigests generateApkSignatureSchemeV3BlockAndDigests()
             throws IOException, InvalidKeyException, NoSuchAlgorithmException, SignatureException {
         Pair<List<SignerConfig>, Map<ContentDigestAlgorithm, byte[]>> digestInfo =
-                ApkSigningBlockUtils.computeContentDigests(
-                        mExecutor, mBeforeCentralDir, mCentralDir, mEocd, mSignerConfigs);
+                ApkSigningBlockUtils.computeContentDigests(mExecutor, mBeforeCentralDir,
+                        mCentralDir, mEocd, mSignerConfigs, mContentDigestCache);
         return new SigningSchemeBlockAndDigests(
                 generateApkSignatureSchemeV3Block(digestInfo.getSecond()), digestInfo.getSecond());
     }
@@ -428,6 +432,7 @@ public class V3SchemeSigner {
         private int mBlockId = V3SchemeConstants.APK_SIGNATURE_SCHEME_V3_BLOCK_ID;
         private OptionalIntCompat mOptionalRotationMinSdkVersion = OptionalIntCompat.empty();
         private boolean mRotationTargetsDevRelease = false;
+        private ContentDigestCache mContentDigestCache;
 
         /**
          * Instantiates a new {@code Builder} with an APK's {@code beforeCentralDir}, {@code
@@ -494,6 +499,15 @@ public class V3SchemeSigner {
             return this;
         }
 
+        /**
+         * Sets the {@link ContentDigestCache} shared with the other schemes signing the same APK,
+         * so the content digests they already computed are not computed again.
+         */
+        public Builder setContentDigestCache(ContentDigestCache contentDigestCache) {
+            mContentDigestCache = contentDigestCache;
+            return this;
+        }
+
         /**
          * Returns a new {@link V3SchemeSigner} built with the configuration provided to this
          * {@code Builder}.
@@ -506,7 +520,8 @@ public class V3SchemeSigner {
                     mExecutor,
                     mBlockId,
                     mOptionalRotationMinSdkVersion,
-                    mRotationTargetsDevRelease);
+                    mRotationTargetsDevRelease,
+                    mContentDigestCache);
         }
     }
 }
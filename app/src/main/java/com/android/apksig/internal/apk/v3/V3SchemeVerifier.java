@@ -53,8 +53,10 @@ import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -74,6 +76,7 @@ public class V3SchemeVerifier {
     private final ApkUtils.ZipSections mZipSections;
     private final ApkSigningBlockUtils.Result mResult;
     private final Set<ContentDigestAlgorithm> mContentDigestsToVerify;
+    private final Map<ContentDigestAlgorithm, byte[]> mComputedContentDigests;
     private final int mMinSdkVersion;
     private final int mMaxSdkVersion;
     private final int mBlockId;
@@ -87,6 +90,7 @@ public class V3SchemeVerifier {
             DataSource apk,
             ApkUtils.ZipSections zipSections,
             Set<ContentDigestAlgorithm> contentDigestsToVerify,
+            Map<ContentDigestAlgorithm, byte[]> computedContentDigests,
             ApkSigningBlockUtils.Result result,
             int minSdkVersion,
             int maxSdkVersion,
@@ -97,6 +101,7 @@ public class V3SchemeVerifier {
         mApk = apk;
         mZipSections = zipSections;
         mContentDigestsToVerify = contentDigestsToVerify;
+        mComputedContentDigests = computedContentDigests;
         mResult = result;
         mMinSdkVersion = minSdkVersion;
         mMaxSdkVersion = maxSdkVersion;
@@ -175,7 +180,7 @@ public class V3SchemeVerifier {
             return mResult;
         }
         ApkSigningBlockUtils.verifyIntegrity(mExecutor, beforeApkSigningBlock, centralDir, eocd,
-                mContentDigestsToVerify, mResult);
+                mContentDigestsToVerify, mComputedContentDigests, mResult);
 
         // make sure that the v3 signers cover the entire targeted sdk version ranges and that the
         // longest SigningCertificateHistory, if present, corresponds to the newest platform
@@ -613,6 +618,7 @@ public class V3SchemeVerifier {
         private ApkUtils.ZipSections mZipSections;
         private ByteBuffer mApkSignatureSchemeV3Block;
         private Set<ContentDigestAlgorithm> mContentDigestsToVerify;
+        private Map<ContentDigestAlgorithm, byte[]> mComputedContentDigests;
         private ApkSigningBlockUtils.Result mResult;
         private int mMinSdkVersion;
         private int mMaxSdkVersion;
@@ -702,6 +708,17 @@ public class V3SchemeVerifier {
             return this;
         }
 
+        /**
+         * Sets the content digests already computed for this APK, for example while verifying its
+         * v3.1 signatures. Algorithms found there are not computed again, and the ones computed
+         * while verifying are added to it.
+         */
+        public Builder setComputedContentDigests(
+                Map<ContentDigestAlgorithm, byte[]> computedContentDigests) {
+            mComputedContentDigests = computedContentDigests;
+            return this;
+        }
+
         /**
          * Sets whether full verification should be performed by the {@code V3SchemeVerifier} built
          * from this instance.
@@ -746,12 +763,16 @@ public class V3SchemeVerifier {
             if (mContentDigestsToVerify == null) {
                 mContentDigestsToVerify = new HashSet<>(1);
             }
+            if (mComputedContentDigests == null) {
+                mComputedContentDigests = new HashMap<>(1);
+            }
 
             V3SchemeVerifier verifier = new V3SchemeVerifier(
                     mExecutor,
                     mApk,
                     mZipSections,
                     mContentDigestsToVerify,
+                    mComputedContentDigests,
                     mResult,
                     mMinSdkVersion,
                     mMaxSdkVersion,
@@ -26,6 +26,7 @@ import com.android.apksig.internal.compat.ClassCompat;
 import com.android.apksig.internal.util.ByteBufferUtils;
 
 import java.io.IOException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -34,6 +35,8 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Parser of ASN.1 BER-encoded structures.
@@ -44,6 +47,17 @@ import java.util.List;
 public final class Asn1BerParser {
     private Asn1BerParser() {}
 
+    // What reflection finds out about a container class never changes, and the same few classes
+    // are parsed over and over while signing and verifying. ClassValue would be the natural fit
+    // but is not available before Android U, classes are never unloaded here anyway.
+    private static final Map<Class<?>, Asn1Type> CONTAINER_TYPES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<AnnotatedField>> CHOICE_FIELDS =
+            new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<AnnotatedField>> SEQUENCE_FIELDS =
+            new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Constructor<?>> CONSTRUCTORS = new ConcurrentHashMap<>();
+    private static final Map<Field, Class<?>> ELEMENT_TYPES = new ConcurrentHashMap<>();
+
     /**
      * Returns the ASN.1 structure contained in the BER encoded input.
      *
@@ -149,6 +163,33 @@ public final class Asn1BerParser {
 
     private static <T> T parseChoice(BerDataValue dataValue, Class<T> containerClass)
             throws Asn1DecodingException {
+        List<AnnotatedField> fields = getChoiceFields(containerClass);
+
+        // Instantiate the container object / result
+        T obj = newInstance(containerClass);
+        // Set the matching field's value from the data value
+        for (AnnotatedField field : fields) {
+            try {
+                field.setValueFrom(dataValue, obj);
+                return obj;
+            } catch (Asn1UnexpectedTagException expected) {
+                // not a match
+            }
+        }
+
+        throw new Asn1DecodingException(
+                "No options of CHOICE " + containerClass.getName() + " matched");
+    }
+
+    /**
+     * Returns the fields of a CHOICE class in declaration order, checked to have distinct tags.
+     */
+    private static List<AnnotatedField> getChoiceFields(Class<?> containerClass)
+            throws Asn1DecodingException {
+        List<AnnotatedField> cached = CHOICE_FIELDS.get(containerClass);
+        if (cached != null) {
+            return cached;
+        }
         List<AnnotatedField> fields = getAnnotatedFields(containerClass);
         if (fields.isEmpty()) {
             throw new Asn1DecodingException(
@@ -174,28 +215,9 @@ public final class Asn1BerParser {
                 }
             }
         }
-
-        // Instantiate the container object / result
-        T obj;
-
-        try {
-            obj = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException |
-                 InstantiationException | InvocationTargetException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
-        // Set the matching field's value from the data value
-        for (AnnotatedField field : fields) {
-            try {
-                field.setValueFrom(dataValue, obj);
-                return obj;
-            } catch (Asn1UnexpectedTagException expected) {
-                // not a match
-            }
-        }
-
-        throw new Asn1DecodingException(
-                "No options of CHOICE " + containerClass.getName() + " matched");
+        fields = Collections.unmodifiableList(fields);
+        CHOICE_FIELDS.put(containerClass, fields);
+        return fields;
     }
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass)
@@ -205,32 +227,10 @@ public final class Asn1BerParser {
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass,
             boolean isUnencodedContainer) throws Asn1DecodingException {
-        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        // Check that there are no fields with the same index
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1DecodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
-        }
+        List<AnnotatedField> fields = getSequenceFields(containerClass);
 
         // Instantiate the container object / result
-        T t;
-        try {
-            t = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException |
-                 InstantiationException | InvocationTargetException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
+        T t = newInstance(containerClass);
 
         // Parse fields one by one. A complication is that there may be optional fields.
         int nextUnreadFieldIndex = 0;
@@ -286,6 +286,51 @@ public final class Asn1BerParser {
         return t;
     }
 
+    /**
+     * Returns the fields of a SEQUENCE class sorted by index, checked to have distinct indices.
+     */
+    private static List<AnnotatedField> getSequenceFields(Class<?> containerClass)
+            throws Asn1DecodingException {
+        List<AnnotatedField> cached = SEQUENCE_FIELDS.get(containerClass);
+        if (cached != null) {
+            return cached;
+        }
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
+        Collections.sort(
+                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+        // Check that there are no fields with the same index
+        if (fields.size() > 1) {
+            AnnotatedField lastField = null;
+            for (AnnotatedField field : fields) {
+                if ((lastField != null)
+                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
+                    throw new Asn1DecodingException(
+                            "Fields have the same index: " + containerClass.getName()
+                                    + "." + lastField.getField().getName()
+                                    + " and ." + field.getField().getName());
+                }
+                lastField = field;
+            }
+        }
+        fields = Collections.unmodifiableList(fields);
+        SEQUENCE_FIELDS.put(containerClass, fields);
+        return fields;
+    }
+
+    private static <T> T newInstance(Class<T> containerClass) throws Asn1DecodingException {
+        try {
+            Constructor<?> constructor = CONSTRUCTORS.get(containerClass);
+            if (constructor == null) {
+                constructor = containerClass.getConstructor();
+                CONSTRUCTORS.put(containerClass, constructor);
+            }
+            return containerClass.cast(constructor.newInstance());
+        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException |
+                 InstantiationException | InvocationTargetException e) {
+            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
+        }
+    }
+
     // NOTE: This method returns List rather than Set because ASN.1 SET_OF does require uniqueness
     // of elements -- it's an unordered collection.
     @SuppressWarnings("unchecked")
@@ -318,6 +363,10 @@ public final class Asn1BerParser {
 
     private static Asn1Type getContainerAsn1Type(Class<?> containerClass)
             throws Asn1DecodingException {
+        Asn1Type cached = CONTAINER_TYPES.get(containerClass);
+        if (cached != null) {
+            return cached;
+        }
         Asn1Class containerAnnotation = ClassCompat.getDeclaredAnnotation(containerClass, Asn1Class.class);
         if (containerAnnotation == null) {
             throw new Asn1DecodingException(
@@ -329,6 +378,7 @@ public final class Asn1BerParser {
             case CHOICE:
             case SEQUENCE:
             case UNENCODED_CONTAINER:
+                CONTAINER_TYPES.put(containerClass, containerAnnotation.type());
                 return containerAnnotation.type();
             default:
                 throw new Asn1DecodingException(
@@ -339,6 +389,10 @@ public final class Asn1BerParser {
 
     private static Class<?> getElementType(Field field)
             throws Asn1DecodingException, ClassNotFoundException {
+        Class<?> cached = ELEMENT_TYPES.get(field);
+        if (cached != null) {
+            return cached;
+        }
         String type;
         if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.P) {
             type = field.getGenericType().getTypeName();
@@ -354,7 +408,9 @@ public final class Asn1BerParser {
             throw new Asn1DecodingException("Not a container type: " + field.getGenericType());
         }
         String elementClassName = type.substring(startIndex, endIndex);
-        return Class.forName(elementClassName);
+        Class<?> elementClass = Class.forName(elementClassName);
+        ELEMENT_TYPES.put(field, elementClass);
+        return elementClass;
     }
 
     private static final class AnnotatedField {
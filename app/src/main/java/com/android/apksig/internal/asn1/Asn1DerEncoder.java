@@ -30,6 +30,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Encoder of ASN.1 structures into DER-encoded form.
@@ -40,6 +42,13 @@ import java.util.List;
 public final class Asn1DerEncoder {
     private Asn1DerEncoder() {}
 
+    // Same as in Asn1BerParser, the reflection over a container class is done once
+    private static final Map<Class<?>, Asn1Type> CONTAINER_TYPES = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<AnnotatedField>> CHOICE_FIELDS =
+            new ConcurrentHashMap<>();
+    private static final Map<Class<?>, List<AnnotatedField>> SEQUENCE_FIELDS =
+            new ConcurrentHashMap<>();
+
     /**
      * Returns the DER-encoded form of the provided ASN.1 structure.
      *
@@ -55,13 +64,19 @@ public final class Asn1DerEncoder {
      */
     public static byte[] encode(Object container) throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        Asn1Class containerAnnotation = ClassCompat.getDeclaredAnnotation(containerClass, Asn1Class.class);
-        if (containerAnnotation == null) {
-            throw new Asn1EncodingException(
-                    containerClass.getName() + " not annotated with " + Asn1Class.class.getName());
+        Asn1Type containerType = CONTAINER_TYPES.get(containerClass);
+        if (containerType == null) {
+            Asn1Class containerAnnotation =
+                    ClassCompat.getDeclaredAnnotation(containerClass, Asn1Class.class);
+            if (containerAnnotation == null) {
+                throw new Asn1EncodingException(
+                        containerClass.getName() + " not annotated with "
+                                + Asn1Class.class.getName());
+            }
+            containerType = containerAnnotation.type();
+            CONTAINER_TYPES.put(containerClass, containerType);
         }
 
-        Asn1Type containerType = containerAnnotation.type();
         switch (containerType) {
             case CHOICE:
                 return toChoice(container);
@@ -76,11 +91,16 @@ public final class Asn1DerEncoder {
 
     private static byte[] toChoice(Object container) throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        if (fields.isEmpty()) {
-            throw new Asn1EncodingException(
-                    "No fields annotated with " + Asn1Field.class.getName()
-                            + " in CHOICE class " + containerClass.getName());
+        List<AnnotatedField> fields = CHOICE_FIELDS.get(containerClass);
+        if (fields == null) {
+            fields = getAnnotatedFields(containerClass);
+            if (fields.isEmpty()) {
+                throw new Asn1EncodingException(
+                        "No fields annotated with " + Asn1Field.class.getName()
+                                + " in CHOICE class " + containerClass.getName());
+            }
+            fields = Collections.unmodifiableList(fields);
+            CHOICE_FIELDS.put(containerClass, fields);
         }
 
         AnnotatedField resultField = null;
@@ -102,7 +122,7 @@ public final class Asn1DerEncoder {
                     "No non-null fields in CHOICE class " + containerClass.getName());
         }
 
-        return resultField.toDer();
+        return resultField.toDer(container);
     }
 
     private static byte[] toSequence(Object container) throws Asn1EncodingException {
@@ -112,29 +132,14 @@ public final class Asn1DerEncoder {
     private static byte[] toSequence(Object container, boolean omitTag)
             throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1EncodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
-        }
+        List<AnnotatedField> fields = getSequenceFields(containerClass);
 
         List<byte[]> serializedFields = new ArrayList<>(fields.size());
         int contentLen = 0;
         for (AnnotatedField field : fields) {
             byte[] serializedField;
             try {
-                serializedField = field.toDer();
+                serializedField = field.toDer(container);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Failed to encode " + containerClass.getName()
@@ -162,6 +167,36 @@ public final class Asn1DerEncoder {
         }
     }
 
+    /**
+     * Returns the fields of a SEQUENCE class sorted by index, checked to have distinct indices.
+     */
+    private static List<AnnotatedField> getSequenceFields(Class<?> containerClass)
+            throws Asn1EncodingException {
+        List<AnnotatedField> cached = SEQUENCE_FIELDS.get(containerClass);
+        if (cached != null) {
+            return cached;
+        }
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
+        Collections.sort(
+                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+        if (fields.size() > 1) {
+            AnnotatedField lastField = null;
+            for (AnnotatedField field : fields) {
+                if ((lastField != null)
+                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
+                    throw new Asn1EncodingException(
+                            "Fields have the same index: " + containerClass.getName()
+                                    + "." + lastField.getField().getName()
+                                    + " and ." + field.getField().getName());
+                }
+                lastField = field;
+            }
+        }
+        fields = Collections.unmodifiableList(fields);
+        SEQUENCE_FIELDS.put(containerClass, fields);
+        return fields;
+    }
+
     private static byte[] toSetOf(Collection<?> values, Asn1Type elementType) throws Asn1EncodingException {
         return toSequenceOrSetOf(values, elementType, true);
     }
@@ -212,9 +247,8 @@ public final class Asn1DerEncoder {
             }
     }
 
-    private static List<AnnotatedField> getAnnotatedFields(Object container)
+    private static List<AnnotatedField> getAnnotatedFields(Class<?> containerClass)
             throws Asn1EncodingException {
-        Class<?> containerClass = container.getClass();
         Field[] declaredFields = containerClass.getDeclaredFields();
         List<AnnotatedField> result = new ArrayList<>(declaredFields.length);
         for (Field field : declaredFields) {
@@ -230,7 +264,7 @@ public final class Asn1DerEncoder {
 
             AnnotatedField annotatedField;
             try {
-                annotatedField = new AnnotatedField(container, field, annotation);
+                annotatedField = new AnnotatedField(field, annotation);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Invalid ASN.1 annotation on "
@@ -347,7 +381,6 @@ public final class Asn1DerEncoder {
 
     private static final class AnnotatedField {
         private final Field mField;
-        private final Object mObject;
         private final Asn1Field mAnnotation;
         private final Asn1Type mDataType;
         private final Asn1Type mElementDataType;
@@ -357,9 +390,8 @@ public final class Asn1DerEncoder {
         private final Asn1Tagging mTagging;
         private final boolean mOptional;
 
-        public AnnotatedField(Object obj, Field field, Asn1Field annotation)
+        public AnnotatedField(Field field, Asn1Field annotation)
                 throws Asn1EncodingException {
-            mObject = obj;
             mField = field;
             mAnnotation = annotation;
             mDataType = annotation.type();
@@ -404,8 +436,8 @@ public final class Asn1DerEncoder {
             return mAnnotation;
         }
 
-        public byte[] toDer() throws Asn1EncodingException {
-            Object fieldValue = getMemberFieldValue(mObject, mField);
+        public byte[] toDer(Object container) throws Asn1EncodingException {
+            Object fieldValue = getMemberFieldValue(container, mField);
             if (fieldValue == null) {
                 if (mOptional) {
                     return null;
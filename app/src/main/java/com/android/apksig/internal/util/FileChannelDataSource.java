@@ -16,6 +16,7 @@
 
 package com.android.apksig.internal.util;
 
+import com.abdurazaaqmohammed.utils.BufferPool;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
 import java.io.IOException;
@@ -99,27 +100,30 @@ public class FileChannelDataSource implements DataSource {
 
         long chunkOffsetInFile = mOffset + offset;
         long remaining = size;
-        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(remaining, MAX_READ_CHUNK_SIZE));
-
-        while (remaining > 0) {
-            int chunkSize = (int) Math.min(remaining, buf.capacity());
-            int chunkRemaining = chunkSize;
-            buf.limit(chunkSize);
-            synchronized (mChannel) {
-                mChannel.position(chunkOffsetInFile);
-                while (chunkRemaining > 0) {
-                    int read = mChannel.read(buf);
-                    if (read < 0) {
-                        throw new RuntimeException("Unexpected EOF encountered");
+        ByteBuffer buf = BufferPool.acquireDirect((int) Math.min(remaining, MAX_READ_CHUNK_SIZE));
+        try {
+            while (remaining > 0) {
+                int chunkSize = (int) Math.min(remaining, buf.capacity());
+                int chunkRemaining = chunkSize;
+                buf.limit(chunkSize);
+                synchronized (mChannel) {
+                    mChannel.position(chunkOffsetInFile);
+                    while (chunkRemaining > 0) {
+                        int read = mChannel.read(buf);
+                        if (read < 0) {
+                            throw new RuntimeException("Unexpected EOF encountered");
+                        }
+                        chunkRemaining -= read;
                     }
-                    chunkRemaining -= read;
                 }
+                buf.flip();
+                sink.consume(buf);
+                buf.clear();
+                chunkOffsetInFile += chunkSize;
+                remaining -= chunkSize;
             }
-            buf.flip();
-            sink.consume(buf);
-            buf.clear();
-            chunkOffsetInFile += chunkSize;
-            remaining -= chunkSize;
+        } finally {
+            BufferPool.releaseDirect(buf);
         }
     }
 
@@ -0,0 +1,246 @@
+package com.android.apksig.internal.util;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link DataSource} backed by read-only memory mappings of a region of a {@link FileChannel}.
+ *
+ * <p>The region is mapped lazily in windows of {@link #WINDOW_SIZE} bytes which are shared by all
+ * slices of this data source. Reads never touch the channel's position, so any number of threads
+ * can read from the same data source at the same time without locking, and {@link #feed} and
+ * {@link #getByteBuffer} hand out views of the mapped memory instead of copies wherever the
+ * requested range lies within a single window.
+ *
+ * <p>The size of the region is fixed at construction time. The file must not be truncated while
+ * this data source is in use.
+ */
+public class MappedFileDataSource implements DataSource {
+
+    /**
+     * Size of each mapping. Small enough to keep address space use in check on 32-bit devices,
+     * large enough that a 1 MB digest chunk rarely straddles two windows.
+     */
+    static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private static final int MAX_READ_CHUNK_SIZE = 1024 * 1024;
+
+    private final Windows mWindows;
+    private final long mOffset;
+    private final long mSize;
+
+    /**
+     * Constructs a new {@code MappedFileDataSource} based on the data contained in the specified
+     * region of the provided file.
+     *
+     * @throws IndexOutOfBoundsException if {@code offset} or {@code size} is negative.
+     */
+    public MappedFileDataSource(FileChannel channel, long offset, long size) {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        mWindows = new Windows(channel, offset, size);
+        mOffset = 0;
+        mSize = size;
+    }
+
+    private MappedFileDataSource(Windows windows, long offset, long size) {
+        mWindows = windows;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public MappedFileDataSource slice(long offset, long size) {
+        checkChunkValid(offset, size, mSize);
+        if ((offset == 0) && (size == mSize)) {
+            return this;
+        }
+
+        return new MappedFileDataSource(mWindows, mOffset + offset, size);
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkChunkValid(offset, size, mSize);
+        long position = mOffset + offset;
+        long end = position + size;
+        while (position < end) {
+            int chunkSize = mWindows.chunkSize(position, end);
+            ByteBuffer chunk = mWindows.get(position, chunkSize);
+            if (chunk != null) {
+                sink.consume(chunk);
+            } else {
+                // Could not be mapped, fall back to reading it
+                int readSize = Math.min(chunkSize, MAX_READ_CHUNK_SIZE);
+                sink.consume(mWindows.read(position, readSize));
+                chunkSize = readSize;
+            }
+            position += chunkSize;
+        }
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkChunkValid(offset, size, mSize);
+        if (size > dest.remaining()) {
+            throw new BufferOverflowException();
+        }
+
+        long position = mOffset + offset;
+        long end = position + size;
+        while (position < end) {
+            int chunkSize = mWindows.chunkSize(position, end);
+            ByteBuffer chunk = mWindows.get(position, chunkSize);
+            if (chunk != null) {
+                dest.put(chunk);
+            } else {
+                mWindows.readFully(position, chunkSize, dest);
+            }
+            position += chunkSize;
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        checkChunkValid(offset, size, mSize);
+        long position = mOffset + offset;
+        if ((size > 0) && (mWindows.chunkSize(position, position + size) == size)) {
+            ByteBuffer chunk = mWindows.get(position, size);
+            if (chunk != null) {
+                return chunk;
+            }
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    private static void checkChunkValid(long offset, long size, long sourceSize) {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        if (offset > sourceSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") > source size (" + sourceSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > sourceSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size
+                            + ") > source size (" + sourceSize  +")");
+        }
+    }
+
+    /**
+     * The mappings of the whole region, shared between a data source and its slices. Positions are
+     * relative to the start of the region.
+     */
+    private static class Windows {
+        private final FileChannel mChannel;
+        private final long mOffset;
+        private final long mSize;
+        private final AtomicReferenceArray<ByteBuffer> mWindows;
+        /** Set once mapping failed, after which everything is read through the channel. */
+        private volatile boolean mMapFailed;
+
+        Windows(FileChannel channel, long offset, long size) {
+            mChannel = channel;
+            mOffset = offset;
+            mSize = size;
+            long count = (size + WINDOW_SIZE - 1) / WINDOW_SIZE;
+            if (count > Integer.MAX_VALUE) {
+                throw new IndexOutOfBoundsException("size: " + size);
+            }
+            mWindows = new AtomicReferenceArray<>((int) count);
+        }
+
+        /**
+         * Returns how many bytes starting at {@code position} and before {@code end} lie in the
+         * same window as {@code position}.
+         */
+        int chunkSize(long position, long end) {
+            long windowEnd = (position / WINDOW_SIZE + 1) * WINDOW_SIZE;
+            return (int) (Math.min(end, windowEnd) - position);
+        }
+
+        /**
+         * Returns a view of {@code size} bytes at {@code position}, which must all lie in one
+         * window, or {@code null} if the window could not be mapped.
+         */
+        ByteBuffer get(long position, int size) {
+            int index = (int) (position / WINDOW_SIZE);
+            ByteBuffer window = mWindows.get(index);
+            if (window == null) {
+                if (mMapFailed) {
+                    return null;
+                }
+                long windowStart = (long) index * WINDOW_SIZE;
+                try {
+                    window = mChannel.map(FileChannel.MapMode.READ_ONLY, mOffset + windowStart,
+                            Math.min(WINDOW_SIZE, mSize - windowStart));
+                } catch (IOException e) {
+                    // Typically out of address space on 32-bit devices
+                    mMapFailed = true;
+                    return null;
+                }
+                // Two threads may race to map the same window, both mappings are identical and
+                // the one not kept is released by the GC
+                if (!mWindows.compareAndSet(index, null, window)) {
+                    window = mWindows.get(index);
+                }
+            }
+            // Each caller gets its own position and limit over the shared mapping
+            ByteBuffer result = window.duplicate();
+            int start = (int) (position - (long) index * WINDOW_SIZE);
+            result.limit(start + size);
+            result.position(start);
+            return result.slice();
+        }
+
+        ByteBuffer read(long position, int size) throws IOException {
+            ByteBuffer result = ByteBuffer.allocate(size);
+            readFully(position, size, result);
+            result.flip();
+            return result;
+        }
+
+        void readFully(long position, int size, ByteBuffer dest) throws IOException {
+            int prevLimit = dest.limit();
+            try {
+                dest.limit(dest.position() + size);
+                while (dest.hasRemaining()) {
+                    // Positional reads leave the channel's position alone, no locking needed
+                    int read = mChannel.read(dest, mOffset + position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected EOF encountered");
+                    }
+                    position += read;
+                }
+            } finally {
+                dest.limit(prevLimit);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.android.apksig.internal.util;
+
+import com.android.apksig.util.RunnablesProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide pool of worker threads used to digest APK contents in parallel.
+ *
+ * <p>The pool is created on first use and never has more than {@link #PARALLELISM} threads. Idle
+ * threads time out, so signing several APKs back to back reuses the same threads instead of
+ * creating (and leaking) a new pool for every digest pass.
+ */
+public final class SharedWorkerPool {
+
+    /**
+     * Maximum number of workers digesting at the same time, including the calling thread.
+     */
+    public static final int PARALLELISM = Math.min(32, Runtime.getRuntime().availableProcessors());
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor sExecutor;
+
+    private SharedWorkerPool() {}
+
+    /**
+     * Returns the shared executor, creating it if needed.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = r -> {
+                Thread thread = new Thread(r, "apksig-worker-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            sExecutor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    threadFactory);
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Runs {@code parallelism} workers obtained from the provider, one of them on the calling
+     * thread, and returns once they are all done.
+     *
+     * <p>Workers are expected to pull their work from a source shared between them, like the chunk
+     * suppliers used for content digests. Because the calling thread takes part, the work always
+     * gets done even when every pool thread is busy; a worker that has not been picked up by a pool
+     * thread by the time the caller runs out of work is cancelled instead of waited for. This also
+     * makes it safe to call from a pool thread.
+     *
+     * @throws RuntimeException the first failure of any of the workers
+     */
+    public static void execute(RunnablesProvider provider, int parallelism) {
+        ExecutorService executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<>(parallelism - 1);
+        List<AtomicBoolean> claims = new ArrayList<>(parallelism - 1);
+        for (int i = 1; i < parallelism; i++) {
+            // Whoever claims a worker first decides whether it runs: the pool thread when it
+            // starts it, or the caller when it finds it still waiting in the queue.
+            AtomicBoolean claim = new AtomicBoolean();
+            Runnable worker = provider.createRunnable();
+            claims.add(claim);
+            futures.add(executor.submit(() -> {
+                if (claim.compareAndSet(false, true)) {
+                    worker.run();
+                }
+            }));
+        }
+
+        RuntimeException failure = null;
+        try {
+            provider.createRunnable().run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        InterruptedException interrupted = null;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<?> future = futures.get(i);
+            if (claims.get(i).compareAndSet(false, true)) {
+                // Never started, there is nothing left for it to do.
+                future.cancel(false);
+                continue;
+            }
+            // A started worker may still be using what the caller handed it, so it is waited for
+            // even if the caller is interrupted.
+            while (true) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof RuntimeException
+                                ? (RuntimeException) cause : new RuntimeException(cause);
+                    }
+                } catch (InterruptedException e) {
+                    if (interrupted == null) {
+                        interrupted = e;
+                    }
+                    continue;
+                }
+                break;
+            }
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+            if (failure == null) {
+                failure = new RuntimeException("Interrupted while waiting for workers", interrupted);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
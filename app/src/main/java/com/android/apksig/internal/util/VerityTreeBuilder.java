@@ -16,8 +16,7 @@
 
 package com.android.apksig.internal.util;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-
+import com.abdurazaaqmohammed.utils.BufferPool;
 import com.android.apksig.internal.zip.ZipUtils;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
@@ -31,10 +30,12 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Phaser;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 
 /**
  * VerityTreeBuilder is used to generate the root hash of verity tree built from the input file.
@@ -77,20 +78,17 @@ public class VerityTreeBuilder implements Closeable {
 
     private final MessageDigest mMd;
 
-    private final ExecutorService mExecutor =
-            new ThreadPoolExecutor(DIGEST_PARALLELISM, DIGEST_PARALLELISM,
-                    0L, MILLISECONDS,
-                    new ArrayBlockingQueue<>(MAX_OUTSTANDING_CHUNKS),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
-
     public VerityTreeBuilder(byte[] salt) throws NoSuchAlgorithmException {
         mSalt = salt;
         mMd = getNewMessageDigest();
     }
 
+    /**
+     * Digests run on the {@link SharedWorkerPool}, there is nothing of this builder's own to
+     * release.
+     */
     @Override
     public void close() {
-        mExecutor.shutdownNow();
     }
 
     /**
@@ -143,16 +141,39 @@ public class VerityTreeBuilder implements Closeable {
      * the actual verity tree format on disk, and is supposed to be re-generated on device.
      */
     public ByteBuffer generateVerityTree(DataSource fileSource) throws IOException {
+        return generateVerityTree(fileSource, fileSource.size(), null);
+    }
+
+    /**
+     * Returns the root hash of the verity tree built from {@code dataSize} bytes of data whose
+     * bottom level, the salted digest of every 4 KB chunk in order, was already computed by the
+     * caller. This lets the data be digested in the same pass as other content digests.
+     */
+    public byte[] generateVerityTreeRootHash(long dataSize, byte[] chunkDigests)
+            throws IOException {
+        return getRootHashFromTree(generateVerityTree(null, dataSize, chunkDigests));
+    }
+
+    private ByteBuffer generateVerityTree(DataSource fileSource, long dataSize,
+            byte[] chunkDigests) throws IOException {
         int digestSize = mMd.getDigestLength();
 
         // Calculate the summed area table of level size. In other word, this is the offset
         // table of each level, plus the next non-existing level.
-        int[] levelOffset = calculateLevelOffset(fileSource.size(), digestSize);
+        int[] levelOffset = calculateLevelOffset(dataSize, digestSize);
 
         ByteBuffer verityBuffer = ByteBuffer.allocate(levelOffset[levelOffset.length - 1]);
 
+        int bottomLevel = levelOffset.length - 2;
+        if (chunkDigests != null) {
+            // The rest of the level is zero padding, which the freshly allocated buffer already is.
+            slice(verityBuffer, levelOffset[bottomLevel], levelOffset[bottomLevel + 1])
+                    .put(chunkDigests);
+            bottomLevel--;
+        }
+
         // Generate the hash tree bottom-up.
-        for (int i = levelOffset.length - 2; i >= 0; i--) {
+        for (int i = bottomLevel; i >= 0; i--) {
             DataSink middleBufferSink = new ByteBufferSink(
                     slice(verityBuffer, levelOffset[i], levelOffset[i + 1]));
             DataSource src;
@@ -230,6 +251,11 @@ public class VerityTreeBuilder implements Closeable {
 
         {
             Phaser tasks = new Phaser(1);
+            // Buffers read but not yet digested, same bound as a queue of MAX_OUTSTANDING_CHUNKS
+            // in front of DIGEST_PARALLELISM threads. Past that the reading thread digests itself.
+            Semaphore outstanding = new Semaphore(DIGEST_PARALLELISM + MAX_OUTSTANDING_CHUNKS);
+            Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+            ExecutorService executor = SharedWorkerPool.getExecutor();
             // Reading the input file as fast as we can.
             final long maxReadSize = ioSizeChunks * CHUNK_SIZE;
 
@@ -241,9 +267,14 @@ public class VerityTreeBuilder implements Closeable {
                 final int bufferSizeChunks = (int) divideRoundup(readSize, CHUNK_SIZE);
 
                 // Overllocating to zero-pad last chunk.
-                // With 4MiB block size, 32 threads and 4 queue size we might allocate up to 144MiB.
-                final ByteBuffer buffer = ByteBuffer.allocate(bufferSizeChunks * CHUNK_SIZE);
+                // With 4MiB block size, 32 threads and 4 queue size we might use up to 144MiB, the
+                // buffers come from the pool so the next digest pass reuses them.
+                final int bufferSize = bufferSizeChunks * CHUNK_SIZE;
+                final byte[] bufferArray = BufferPool.acquire(bufferSize);
+                final ByteBuffer buffer = ByteBuffer.wrap(bufferArray, 0, bufferSize).slice();
                 dataSource.copyTo(readOffset, readSize, buffer);
+                // Pooled buffers are not zeroed.
+                Arrays.fill(bufferArray, readSize, bufferSize, (byte) 0);
                 buffer.rewind();
 
                 final int readChunkIndex = startChunkIndex;
@@ -254,15 +285,37 @@ public class VerityTreeBuilder implements Closeable {
                         ByteBuffer chunk = slice(buffer, offset, offset + CHUNK_SIZE);
                         hashes[chunkIndex] = saltedDigest(md, chunk);
                     }
+                    BufferPool.release(bufferArray);
                     tasks.arriveAndDeregister();
                 };
                 tasks.register();
-                mExecutor.execute(task);
+                if (outstanding.tryAcquire()) {
+                    pending.add(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            outstanding.release();
+                        }
+                    });
+                    // The pool may be busy with other work, whatever it has not picked up by the
+                    // end of the file is digested below by this thread
+                    executor.execute(() -> {
+                        Runnable next = pending.poll();
+                        if (next != null) {
+                            next.run();
+                        }
+                    });
+                } else {
+                    task.run();
+                }
 
                 startChunkIndex += bufferSizeChunks;
                 readOffset += readSize;
             }
 
+            for (Runnable next; (next = pending.poll()) != null; ) {
+                next.run();
+            }
             // Waiting for the tasks to complete.
             tasks.arriveAndAwaitAdvance();
         }
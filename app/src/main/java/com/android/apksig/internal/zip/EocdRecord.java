@@ -28,6 +28,26 @@ public class EocdRecord {
     private static final int CD_SIZE_OFFSET = 12;
     private static final int CD_OFFSET_OFFSET = 16;
 
+    private static final int RECORD_SIGNATURE = 0x06054b50;
+    private static final int MIN_SIZE_BYTES = 22;
+
+    /**
+     * Returns a new ZIP End of Central Directory record without a comment.
+     */
+    public static ByteBuffer create(
+            int centralDirectoryRecordCount,
+            long centralDirectorySizeBytes,
+            long centralDirectoryOffset) {
+        ByteBuffer original = ByteBuffer.allocate(MIN_SIZE_BYTES);
+        original.order(ByteOrder.LITTLE_ENDIAN);
+        original.putInt(0, RECORD_SIGNATURE);
+        return createWithModifiedCentralDirectoryInfo(
+                original,
+                centralDirectoryRecordCount,
+                centralDirectorySizeBytes,
+                centralDirectoryOffset);
+    }
+
     public static ByteBuffer createWithModifiedCentralDirectoryInfo(
             ByteBuffer original,
             int centralDirectoryRecordCount,
@@ -47,7 +67,7 @@ public class EocdRecord {
     }
 
     public static ByteBuffer createWithPaddedComment(ByteBuffer original, int padding) {
-        ByteBuffer result = ByteBuffer.allocate((int) original.remaining() + padding);
+        ByteBuffer result = ByteBuffer.allocate(original.remaining() + padding);
         result.order(ByteOrder.LITTLE_ENDIAN);
         result.put(original.slice());
         result.rewind();
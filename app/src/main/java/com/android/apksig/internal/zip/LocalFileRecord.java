@@ -335,22 +335,79 @@ public class LocalFileRecord {
             long crc32,
             long uncompressedSize,
             DataSink output) throws IOException {
+        long outputByteCount =
+                outputRecordHeader(
+                        name,
+                        ZipUtils.COMPRESSION_METHOD_DEFLATED,
+                        lastModifiedTime,
+                        lastModifiedDate,
+                        crc32,
+                        compressedData.length,
+                        uncompressedSize,
+                        EMPTY_BYTE_BUFFER,
+                        output);
+        outputByteCount += compressedData.length;
+        output.consume(compressedData, 0, compressedData.length);
+        return outputByteCount;
+    }
+
+    /**
+     * Returns the offset of the CRC-32 field inside a Local File Header record. The compressed and
+     * uncompressed sizes follow it.
+     */
+    public static int getCrc32OffsetInRecord() {
+        return CRC32_OFFSET;
+    }
+
+    /**
+     * Returns the CRC-32, compressed size and uncompressed size fields of a Local File Header
+     * record, for filling in a header output by {@link #outputRecordHeader} with placeholders once
+     * the entry's data has been output.
+     */
+    public static ByteBuffer createCrc32AndSizes(
+            long crc32, long compressedSize, long uncompressedSize) {
+        ByteBuffer result =
+                ByteBuffer.allocate(UNCOMPRESSED_SIZE_OFFSET + 4 - CRC32_OFFSET);
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        ZipUtils.putUnsignedInt32(result, crc32);
+        ZipUtils.putUnsignedInt32(result, compressedSize);
+        ZipUtils.putUnsignedInt32(result, uncompressedSize);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Outputs the specified Local File Header record without its data and returns the number of
+     * bytes output. The caller is expected to output exactly {@code compressedSize} bytes of data
+     * right after.
+     */
+    public static long outputRecordHeader(
+            String name,
+            short compressionMethod,
+            int lastModifiedTime,
+            int lastModifiedDate,
+            long crc32,
+            long compressedSize,
+            long uncompressedSize,
+            ByteBuffer extra,
+            DataSink output) throws IOException {
         byte[] nameBytes = name.getBytes(Constants.UTF8);
-        int recordSize = HEADER_SIZE_BYTES + nameBytes.length;
+        int recordSize = HEADER_SIZE_BYTES + nameBytes.length + extra.remaining();
         ByteBuffer result = ByteBuffer.allocate(recordSize);
         result.order(ByteOrder.LITTLE_ENDIAN);
         result.putInt(RECORD_SIGNATURE);
         ZipUtils.putUnsignedInt16(result,  0x14); // Minimum version needed to extract
         result.putShort(ZipUtils.GP_FLAG_EFS); // General purpose flag: UTF-8 encoded name
-        result.putShort(ZipUtils.COMPRESSION_METHOD_DEFLATED);
+        result.putShort(compressionMethod);
         ZipUtils.putUnsignedInt16(result, lastModifiedTime);
         ZipUtils.putUnsignedInt16(result, lastModifiedDate);
         ZipUtils.putUnsignedInt32(result, crc32);
-        ZipUtils.putUnsignedInt32(result, compressedData.length);
+        ZipUtils.putUnsignedInt32(result, compressedSize);
         ZipUtils.putUnsignedInt32(result, uncompressedSize);
         ZipUtils.putUnsignedInt16(result, nameBytes.length);
-        ZipUtils.putUnsignedInt16(result, 0); // Extra field length
+        ZipUtils.putUnsignedInt16(result, extra.remaining());
         result.put(nameBytes);
+        result.put(extra.slice());
         if (result.hasRemaining()) {
             throw new RuntimeException("pos: " + result.position() + ", limit: " + result.limit());
         }
@@ -358,8 +415,6 @@ public class LocalFileRecord {
 
         long outputByteCount = result.remaining();
         output.consume(result);
-        outputByteCount += compressedData.length;
-        output.consume(compressedData, 0, compressedData.length);
         return outputByteCount;
     }
 
@@ -18,6 +18,8 @@ package com.android.apksig.util;
 
 import com.android.apksig.internal.util.ByteBufferDataSource;
 import com.android.apksig.internal.util.FileChannelDataSource;
+import com.android.apksig.internal.util.MappedFileDataSource;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -77,4 +79,26 @@ public abstract class DataSources {
         }
         return new FileChannelDataSource(channel, offset, size);
     }
+
+    /**
+     * Returns a {@link DataSource} backed by read-only memory mappings of the provided
+     * {@link RandomAccessFile}. Unlike {@link #asDataSource(RandomAccessFile)}, the data source can
+     * be read from several threads without contention and hands out views of the mapped file rather
+     * than copies. Its size is fixed to the size of the file at the time of this call, so the file
+     * must not be modified while the data source is in use.
+     */
+    public static DataSource asMappedDataSource(RandomAccessFile file) throws IOException {
+        return asMappedDataSource(file.getChannel(), 0, file.length());
+    }
+
+    /**
+     * Returns a {@link DataSource} backed by read-only memory mappings of the provided region of
+     * the {@link FileChannel}. The region must not be modified while the data source is in use.
+     */
+    public static DataSource asMappedDataSource(FileChannel channel, long offset, long size) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        return new MappedFileDataSource(channel, offset, size);
+    }
 }
@@ -16,47 +16,17 @@
 
 package com.android.apksig.util;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.ThreadPoolExecutor;
+import com.android.apksig.internal.util.SharedWorkerPool;
 
 public interface RunnablesExecutor {
     static final RunnablesExecutor SINGLE_THREADED = p -> p.createRunnable().run();
 
-    static final RunnablesExecutor MULTI_THREADED = new RunnablesExecutor() {
-        private final int PARALLELISM = Math.min(32, Runtime.getRuntime().availableProcessors());
-        private final int QUEUE_SIZE = 4;
-
-        @Override
-        public void execute(RunnablesProvider provider) {
-            final ExecutorService mExecutor =
-                    new ThreadPoolExecutor(PARALLELISM, PARALLELISM,
-                            0L, MILLISECONDS,
-                            new ArrayBlockingQueue<>(QUEUE_SIZE),
-                            new ThreadPoolExecutor.CallerRunsPolicy());
-
-            //not used
-            Phaser tasks = new Phaser(1);
-
-            for (int i = 0; i < PARALLELISM; ++i) {
-                Runnable task = () -> {
-                    Runnable r = provider.createRunnable();
-                    r.run();
-                    tasks.arriveAndDeregister();
-                };
-                tasks.register();
-                mExecutor.execute(task);
-            }
-
-            // Waiting for the tasks to complete.
-            tasks.arriveAndAwaitAdvance();
-
-            mExecutor.shutdownNow();
-        }
-    };
+    /**
+     * Runs the provided workers on the process-wide {@link SharedWorkerPool}, with the calling
+     * thread taking part. Workers are expected to pull their work from a source they share.
+     */
+    static final RunnablesExecutor MULTI_THREADED =
+            provider -> SharedWorkerPool.execute(provider, SharedWorkerPool.PARALLELISM);
 
     void execute(RunnablesProvider provider);
 }
@@ -4,6 +4,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Input/output utility methods.
@@ -87,6 +88,20 @@ public class IoUtils {
 				| (((long) readByte(input, label) & 0xFF) << 56);
 	}
 
+	/**
+	 * Get a 2-byte unsigned short from the buffer which should be in little-endian order.
+	 */
+	public static int getUnsignedShort(ByteBuffer buffer) {
+		return buffer.getShort() & 0xFFFF;
+	}
+
+	/**
+	 * Get a 4-byte unsigned int from the buffer, which should be in little-endian order, as a long.
+	 */
+	public static long getUnsignedInt(ByteBuffer buffer) {
+		return buffer.getInt() & 0xFFFFFFFFL;
+	}
+
 	/**
 	 * Read an array of bytes from the input stream.
 	 * 
@@ -1,42 +1,66 @@
 package com.j256.simplezip;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
- * Buffer that keeps around the last read bytes, allowing us to rewind the stream for a certain number of bytes. This is
- * necessary because there are a couple of places where the stream is read ahead because of buffering and we need to
- * rewind when done.
+ * Stream that keeps around the last read bytes in a fixed-size ring buffer, allowing us to rewind the stream for up to
+ * that many bytes. This is necessary because there are a couple of places where the stream is read ahead because of
+ * buffering and we need to rewind when done. Those only ever rewind a record signature or the input the inflater had
+ * left over so the window can stay small, and memory use does not grow however long the stream is.
+ * 
+ * Reads go straight from the delegate into the caller's buffer, only the last window's worth of each read is copied
+ * into the ring buffer so large reads cost a single copy of at most the window size.
  * 
  * @author graywatson
  */
 public class RewindableInputStream extends InputStream {
 
+	/** largest fixed-size part of a record read with {@link #readLittleEndian(int, String)} */
+	private static final int MAX_FIXED_SIZE = 64;
+
 	private final InputStream delegate;
-	private byte[] buffer;
-	private int offset;
-	private int extraOffset;
+	private final ByteBuffer fixedBuffer = ByteBuffer.allocate(MAX_FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	/** the last bytes read, ending just before writeOffset */
+	private final byte[] window;
+	/** where the next byte from the delegate goes in the window */
+	private int writeOffset;
+	/** number of bytes in the window that we can rewind over */
+	private int windowLength;
+	/** number of bytes we have rewound over that need to be read again before reading from the delegate */
+	private int numRewound;
 	private long byteCount;
 
-	public RewindableInputStream(InputStream delegate, int initialBufferSize) {
+	/**
+	 * @param windowSize
+	 *            Maximum number of bytes that can be rewound.
+	 */
+	public RewindableInputStream(InputStream delegate, int windowSize) {
 		this.delegate = delegate;
-		this.buffer = new byte[initialBufferSize];
+		this.window = new byte[windowSize];
 	}
 
 	@Override
 	public int read() throws IOException {
-		if (extraOffset < offset) {
-			int ret = (int) (buffer[extraOffset++] & 0xff);
+		if (numRewound > 0) {
+			int ret = window[windowIndex(numRewound)] & 0xff;
+			numRewound--;
 			byteCount++;
 			return ret;
 		}
-		ensureSpace(1);
-		int ret = delegate.read(buffer, offset, 1);
+		int ret = delegate.read();
 		if (ret < 0) {
 			return -1;
 		}
-		ret = (int) (buffer[offset++] & 0xff);
-		extraOffset++;
+		window[writeOffset] = (byte) ret;
+		writeOffset = (writeOffset + 1) % window.length;
+		if (windowLength < window.length) {
+			windowLength++;
+		}
 		byteCount++;
 		return ret;
 	}
@@ -52,16 +76,21 @@ public class RewindableInputStream extends InputStream {
 			return 0;
 		}
 		int extraRead = 0;
-		for (; extraOffset < offset && length > 0; length--) {
-			outBuffer[outOffset++] = buffer[extraOffset++];
-			extraRead++;
-			byteCount++;
+		while (numRewound > 0 && length > 0) {
+			// the rewound bytes may wrap around the end of the window
+			int start = windowIndex(numRewound);
+			int num = Math.min(Math.min(numRewound, length), window.length - start);
+			System.arraycopy(window, start, outBuffer, outOffset, num);
+			numRewound -= num;
+			outOffset += num;
+			length -= num;
+			extraRead += num;
 		}
+		byteCount += extraRead;
 		if (length == 0) {
 			return extraRead;
 		}
-		ensureSpace(length);
-		int numRead = delegate.read(buffer, offset, length);
+		int numRead = delegate.read(outBuffer, outOffset, length);
 		if (numRead < 0) {
 			if (extraRead == 0) {
 				return -1;
@@ -69,21 +98,85 @@ public class RewindableInputStream extends InputStream {
 				return extraRead;
 			}
 		}
-		System.arraycopy(buffer, offset, outBuffer, outOffset, numRead);
-		offset += numRead;
-		extraOffset += numRead;
+		remember(outBuffer, outOffset, numRead);
 		byteCount += numRead;
 		return extraRead + numRead;
 	}
 
 	/**
-	 * Rewind the buffer a certain number of bytes.
+	 * Skip bytes, the ones rewound over first and then with the delegate's skip, so a file or channel seeks instead of
+	 * reading. It only returns fewer bytes than asked for at EOF.
+	 * 
+	 * NOTE: after skipping past the rewound bytes you can no longer rewind to before the skip.
+	 */
+	@Override
+	public long skip(long numBytes) throws IOException {
+		long numSkipped = 0;
+		int extra = (int) Math.min(numBytes, numRewound);
+		if (extra > 0) {
+			numRewound -= extra;
+			numSkipped = extra;
+		}
+		if (numSkipped < numBytes) {
+			// the window no longer holds the bytes just before the position
+			windowLength = 0;
+		}
+		while (numSkipped < numBytes) {
+			long num = delegate.skip(numBytes - numSkipped);
+			if (num > 0 && delegate instanceof FileInputStream) {
+				num -= skippedPastEnd((FileInputStream) delegate);
+			}
+			if (num <= 0) {
+				// some streams skip 0 before EOF, read to tell the two apart
+				if (delegate.read() < 0) {
+					break;
+				}
+				num = 1;
+			}
+			numSkipped += num;
+		}
+		byteCount += numSkipped;
+		return numSkipped;
+	}
+
+	/**
+	 * {@link FileInputStream#skip(long)} seeks past the end of a file without complaint and returns the full count, so
+	 * work out how far past the end it went.
+	 */
+	private static long skippedPastEnd(FileInputStream fileInputStream) {
+		FileChannel channel = fileInputStream.getChannel();
+		try {
+			return Math.max(0, channel.position() - channel.size());
+		} catch (IOException e) {
+			// not seekable, like a pipe, which is skipped by reading so it stops at the end
+			return 0;
+		}
+	}
+
+	/**
+	 * Read the fixed-size part of a record in one go so its fields can be decoded from the returned little-endian
+	 * buffer instead of a byte at a time.
+	 * 
+	 * NOTE: the buffer is reused, it is only valid until the next call.
+	 */
+	public ByteBuffer readLittleEndian(int length, String label) throws IOException {
+		if (length > MAX_FIXED_SIZE) {
+			throw new IllegalArgumentException("length " + length + " should be <= " + MAX_FIXED_SIZE);
+		}
+		fixedBuffer.clear();
+		IoUtils.readFully(this, fixedBuffer.array(), length, label);
+		fixedBuffer.limit(length);
+		return fixedBuffer;
+	}
+
+	/**
+	 * Rewind the stream a certain number of bytes, at most the window size passed to the constructor.
 	 */
 	public void rewind(int numBytes) throws IOException {
-		if (numBytes > extraOffset) {
-			throw new IOException("Trying to rewind " + numBytes + " but buffer only has " + extraOffset);
+		if (numBytes > windowLength - numRewound) {
+			throw new IOException("Trying to rewind " + numBytes + " but buffer only has " + (windowLength - numRewound));
 		}
-		extraOffset -= numBytes;
+		numRewound += numBytes;
 		byteCount -= numBytes;
 	}
 
@@ -100,20 +193,25 @@ public class RewindableInputStream extends InputStream {
 	}
 
 	/**
-	 * Ensure we have these many bytes left in the buffer.
-	 * 
-	 * NOTE: we wouldn't be here if there were extra bytes so we don't have to copy anything around
+	 * Index in the window of the byte that is this many bytes before the write offset.
 	 */
-	private void ensureSpace(int numBytes) {
-		if (offset + numBytes <= buffer.length) {
-			return;
-		}
-		// only grow the buffer if the read is more than the buffer size
-		if (numBytes > buffer.length) {
-			int newLength = Math.max(buffer.length * 2, numBytes * 2);
-			buffer = new byte[newLength];
+	private int windowIndex(int numBytesBack) {
+		int index = writeOffset - numBytesBack;
+		return (index < 0 ? index + window.length : index);
+	}
+
+	/**
+	 * Copy the last bytes that were read from the delegate into the window, only the ones that still fit are kept.
+	 */
+	private void remember(byte[] bytes, int offset, int length) {
+		if (length > window.length) {
+			offset += length - window.length;
+			length = window.length;
 		}
-		offset = 0;
-		extraOffset = 0;
+		int first = Math.min(length, window.length - writeOffset);
+		System.arraycopy(bytes, offset, window, writeOffset, first);
+		System.arraycopy(bytes, offset + first, window, 0, length - first);
+		writeOffset = (writeOffset + length) % window.length;
+		windowLength = Math.min(window.length, windowLength + length);
 	}
 }
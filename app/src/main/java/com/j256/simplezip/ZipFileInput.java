@@ -1,13 +1,21 @@
 package com.j256.simplezip;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.abdurazaaqmohammed.utils.FileUtils;
 import com.j256.simplezip.codec.FileDataDecoder;
@@ -27,11 +35,21 @@ import com.j256.simplezip.format.ZipFileHeader;
 /**
  * Read in a Zip-file either from a {@link File} or an {@link InputStream}.
  * 
+ * When reading from a {@link File} or a {@link FileChannel} the Zip-file can also be read in random-access order: see
+ * {@link #readCentralDirectory()} and {@link #readFileHeader(ZipCentralDirectoryFileEntry)}.
+ * 
  * @author graywatson
  */
 public class ZipFileInput implements Closeable {
 
-	private final RewindableInputStream inputStream;
+	/** central-directory end is 22 bytes plus a comment of at most 65535 */
+	private static final int MAX_DIRECTORY_END_SIZE = ZipCentralDirectoryEnd.MINIMUM_READ_SIZE + 4 + 65535;
+	private static final int DIRECTORY_END_SIGNATURE = 0x6054b50;
+	/** zip64 locator is signature, disk-number, end-offset, number-disks */
+	private static final int ZIP64_LOCATOR_SIZE = 4 + 4 + 8 + 4;
+
+	private final FileChannel channel;
+	private RewindableInputStream inputStream;
 	private final ZipFileDataInfo fileDataCountingInfo = new ZipFileDataInfo();
 	private final byte[] tmpBuffer = new byte[IoUtils.STANDARD_BUFFER_SIZE];
 
@@ -52,18 +70,45 @@ public class ZipFileInput implements Closeable {
 	}
 
 	/**
-	 * Read a Zip-file from a file. You must call {@link #close()} to close the stream when you are done.
+	 * Read a Zip-file from a file. This supports random-access reading. You must call {@link #close()} to close the
+	 * file when you are done.
 	 */
 	public ZipFileInput(File file) throws IOException {
-		this(com.abdurazaaqmohammed.utils.FileUtils.getInputStream(file));
+		this(new RandomAccessFile(file, "r").getChannel());
+	}
+
+	/**
+	 * Read a Zip-file from a seekable file-channel, such as one from a {@link java.io.FileInputStream} opened on a
+	 * file-descriptor. This supports random-access reading. The channel's position is not used or changed, reads are
+	 * done at absolute positions starting from 0. You must call {@link #close()} to close the channel when you are
+	 * done.
+	 */
+	public ZipFileInput(FileChannel channel) {
+		this.channel = channel;
+		this.inputStream = new RewindableInputStream(new ChannelInputStream(channel, 0), IoUtils.STANDARD_BUFFER_SIZE);
+		// we own the whole channel, there is no outer Zip to read to the end of
+		readTillEof = false;
 	}
 
 	/**
 	 * Read a Zip-file from an input-stream. You must call {@link #close()} to close the stream when you are done.
 	 */
 	public ZipFileInput(InputStream inputStream) {
+		this(inputStream, true);
+	}
+
+	/**
+	 * Read a Zip-file from an input-stream. You must call {@link #close()} to close the stream when you are done.
+	 * 
+	 * @param readTillEof
+	 *            Whether {@link #close()} reads to the end of the Zip-file first, see {@link #setReadTillEof(boolean)}.
+	 *            Pass false unless the stream is a Zip within another Zip that is still being read, then closing
+	 *            stops at once no matter how much of the Zip-file is left.
+	 */
+	public ZipFileInput(InputStream inputStream, boolean readTillEof) {
+		this.channel = null;
 		this.inputStream = new RewindableInputStream(inputStream, IoUtils.STANDARD_BUFFER_SIZE);
-		readTillEof = true;
+		this.readTillEof = readTillEof;
 	}
 
 	/**
@@ -83,6 +128,137 @@ public class ZipFileInput implements Closeable {
 		return currentFileHeader;
 	}
 
+	/**
+	 * Read file headers until one of the files in the set argument, skipping the data of all the others, and remove it
+	 * from the set. Once the set is empty this returns null straight away without reading any further, so a loop like
+	 * <code>while ((header = zipInput.readFileHeader(fileNames)) != null)</code> stops after the last file it needs
+	 * instead of going through the rest of the Zip-file. Use together with {@link #ZipFileInput(InputStream, boolean)}
+	 * so that {@link #close()} does not read the rest either.
+	 * 
+	 * @return The header of the next file in the set or null if all were found or the end of the files was reached.
+	 */
+	public ZipFileHeader readFileHeader(Set<String> remainingFileNames) throws IOException {
+		while (!remainingFileNames.isEmpty()) {
+			ZipFileHeader fileHeader = readFileHeader();
+			if (fileHeader == null) {
+				return null;
+			}
+			if (remainingFileNames.remove(fileHeader.getFileName())) {
+				return fileHeader;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Jump to the file header of a central-directory entry returned by {@link #readCentralDirectory()} and read it. The
+	 * file data can then be read with the usual methods, and {@link #readFileHeader()} continues with the entry after
+	 * it in the file. Any data left unread in the current entry is abandoned instead of being skipped over.
+	 * 
+	 * NOTE: {@link #getNumBytesRead()} counts from the jump.
+	 * 
+	 * @throws IllegalStateException
+	 *             If this was not opened from a {@link File} or {@link FileChannel}.
+	 */
+	public ZipFileHeader readFileHeader(ZipCentralDirectoryFileEntry entry) throws IOException {
+		if (channel == null) {
+			throw new IllegalStateException("Random-access reading needs a File or FileChannel");
+		}
+		if (fileDataDecoder != null) {
+			fileDataDecoder.close();
+			fileDataDecoder = null;
+		}
+		currentFileEofReached = true;
+		// the offset is read as an unsigned 32-bit value so it is good for files up to 4gb
+		long offset = entry.getRelativeOffsetOfLocalHeader();
+		inputStream = new RewindableInputStream(new ChannelInputStream(channel, offset), IoUtils.STANDARD_BUFFER_SIZE);
+		return readFileHeader();
+	}
+
+	/**
+	 * Read all of the central-directory entries by seeking to the end of the Zip-file instead of reading through all
+	 * of the file data first. This does not change where {@link #readFileHeader()} reads from.
+	 * 
+	 * @throws IllegalStateException
+	 *             If this was not opened from a {@link File} or {@link FileChannel}.
+	 * @throws IOException
+	 *             If the central-directory end could not be found, for example because the channel is not seekable.
+	 */
+	public List<ZipCentralDirectoryFileEntry> readCentralDirectory() throws IOException {
+		if (channel == null) {
+			throw new IllegalStateException("Random-access reading needs a File or FileChannel");
+		}
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, MAX_DIRECTORY_END_SIZE + ZIP64_LOCATOR_SIZE);
+		byte[] tail = readFully(fileSize - tailSize, tailSize, "central-directory end");
+
+		int endOffset = findCentralDirectoryEnd(tail, tailSize);
+		if (endOffset < 0) {
+			throw new IOException("Could not find the central-directory end in the last " + tailSize + " bytes");
+		}
+		ZipCentralDirectoryEnd end = ZipCentralDirectoryEnd.read(
+				new RewindableInputStream(new ByteArrayInputStream(tail, endOffset, tailSize - endOffset), 4));
+
+		// both are read as unsigned 32-bit values, an offset of all ones means the real values are in the Zip64 end
+		long directoryOffset = end.getDirectoryOffset();
+		long directorySize = end.getDirectorySize();
+		if (directoryOffset == IoUtils.MAX_UNSIGNED_INT_VALUE && endOffset >= ZIP64_LOCATOR_SIZE) {
+			Zip64CentralDirectoryEndLocator locator = Zip64CentralDirectoryEndLocator.read(new RewindableInputStream(
+					new ByteArrayInputStream(tail, endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE), 4));
+			if (locator != null) {
+				Zip64CentralDirectoryEnd zip64End = Zip64CentralDirectoryEnd.read(new RewindableInputStream(
+						new ChannelInputStream(channel, locator.getEndOffset()), IoUtils.STANDARD_BUFFER_SIZE));
+				if (zip64End != null) {
+					directoryOffset = zip64End.getDirectoryOffset();
+					directorySize = zip64End.getDirectorySize();
+				}
+			}
+		}
+		if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize) {
+			throw new IOException(
+					"Invalid central-directory at offset " + directoryOffset + " with size " + directorySize);
+		}
+
+		byte[] directory = readFully(directoryOffset, (int) directorySize, "central-directory");
+		RewindableInputStream directoryStream = new RewindableInputStream(new ByteArrayInputStream(directory), 4);
+		List<ZipCentralDirectoryFileEntry> entries = new ArrayList<>(end.getNumRecordsTotal());
+		while (directoryStream.getByteCount() < directorySize) {
+			ZipCentralDirectoryFileEntry entry = ZipCentralDirectoryFileEntry.read(directoryStream);
+			if (entry == null) {
+				break;
+			}
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Find the central-directory end in the last bytes of a Zip-file. The comment is variable length so this searches
+	 * backwards for the signature of an end whose comment reaches the end of the bytes. A signature inside the comment
+	 * is not taken for the end.
+	 * 
+	 * @param tail
+	 *            The last tailSize bytes of the Zip-file.
+	 * @return The offset of the central-directory end in tail or -1 if there is none.
+	 */
+	public static int findCentralDirectoryEnd(byte[] tail, int tailSize) {
+		for (int i = tailSize - ZipCentralDirectoryEnd.MINIMUM_READ_SIZE - 4; i >= 0; i--) {
+			if (getInt(tail, i) == DIRECTORY_END_SIGNATURE
+					&& i + ZipCentralDirectoryEnd.MINIMUM_READ_SIZE + 4 + getShort(tail, i + 20) == tailSize) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns true if this was opened from a {@link File} or {@link FileChannel} so the random-access methods can be
+	 * used.
+	 */
+	public boolean isRandomAccess() {
+		return channel != null;
+	}
+
 	/**
 	 * Return an iterator that can be used to step across the file-headers. The iterator will return false for
 	 * {@link Iterator#hasNext()} and null for {@link Iterator#next()} once the end has been reached.
@@ -92,20 +268,40 @@ public class ZipFileInput implements Closeable {
 	}
 
 	/**
-	 * Skip over the file data in the zip.
+	 * Skip over the file data in the zip. If the file-header has the compressed size, which it does unless the
+	 * {@link GeneralPurposeFlag#DATA_DESCRIPTOR} flag is set, the encoded bytes are skipped without being read at all,
+	 * with {@link InputStream#skip(long)} or by moving the channel position. Otherwise the data has to be decoded to
+	 * find where it ends but it is not counted or CRC-ed.
+	 * 
+	 * NOTE: {@link #getCurrentFileCountingInfo()} does not include the skipped data.
 	 * 
-	 * @return The number of bytes skipped.
+	 * @return The number of (decoded) bytes skipped.
 	 */
 	public long skipFileData() throws IOException {
-		long byteCount = 0;
-		while (true) {
-			int numRead = readFileDataPart(tmpBuffer, 0, tmpBuffer.length);
-			if (numRead < 0) {
-				break;
+		if (currentFileHeader == null) {
+			throw new IllegalStateException("Need to call readFileHeader() before you can skip file data");
+		}
+		if (currentFileEofReached) {
+			return 0;
+		}
+		if (fileDataDecoder == null && !currentFileHeader.hasFlag(GeneralPurposeFlag.DATA_DESCRIPTOR)) {
+			long compressedSize = currentFileHeader.getZip64CompressedSize();
+			long numSkipped = inputStream.skip(compressedSize);
+			if (numSkipped < compressedSize) {
+				throw new EOFException("reached unexpected EOF after skipping " + numSkipped + " of " + compressedSize
+						+ " bytes of " + currentFileHeader.getFileName());
 			}
-			byteCount += numRead;
+			currentFileEofReached = true;
+			return currentFileHeader.getZip64UncompressedSize();
+		}
+		if (fileDataDecoder == null) {
+			assignFileDataDecoder(currentFileHeader.getCompressionMethod());
+		}
+		while (fileDataDecoder.decode(tmpBuffer, 0, tmpBuffer.length) >= 0) {
+			// just looking for the end
 		}
-		// NOTE: close gets called in readFileDataPart()
+		long byteCount = fileDataDecoder.getBytesWritten();
+		closeFileData();
 		return byteCount;
 	}
 
@@ -400,7 +596,11 @@ public class ZipFileInput implements Closeable {
 		if (readTillEof) {
 			readToEndOfZip();
 		}
-		inputStream.close();
+		if (channel == null) {
+			inputStream.close();
+		} else {
+			channel.close();
+		}
 	}
 
 	/**
@@ -454,6 +654,25 @@ public class ZipFileInput implements Closeable {
 		this.readTillEof = readTillEof;
 	}
 
+	private byte[] readFully(long position, int length, String label) throws IOException {
+		byte[] bytes = new byte[length];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("reached unexpected EOF while reading " + length + " bytes for " + label);
+			}
+		}
+		return bytes;
+	}
+
+	private static int getShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) | ((bytes[offset + 1] & 0xff) << 8);
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return getShort(bytes, offset) | (getShort(bytes, offset + 2) << 16);
+	}
+
 	private int doReadFileDataPart(byte[] buffer, int offset, int length, int compressionMethod) throws IOException {
 		if (currentFileEofReached) {
 			return -1;
@@ -522,7 +741,7 @@ public class ZipFileInput implements Closeable {
 			if (val < 0) {
 				return -1;
 			} else {
-				return singleByteBuffer[0];
+				return singleByteBuffer[0] & 0xFF;
 			}
 		}
 
@@ -541,6 +760,54 @@ public class ZipFileInput implements Closeable {
 		}
 	}
 
+	/**
+	 * Reads a file-channel from a position without using or changing the channel's own position.
+	 */
+	private static class ChannelInputStream extends InputStream {
+
+		private final FileChannel channel;
+		private final byte[] singleByte = new byte[1];
+		private long position;
+
+		public ChannelInputStream(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (read(singleByte, 0, 1) < 0) {
+				return -1;
+			} else {
+				return singleByte[0] & 0xff;
+			}
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			int numRead = channel.read(ByteBuffer.wrap(buffer, offset, length), position);
+			if (numRead > 0) {
+				position += numRead;
+			}
+			return numRead;
+		}
+
+		@Override
+		public long skip(long numBytes) throws IOException {
+			long numSkipped = Math.max(0, Math.min(numBytes, channel.size() - position));
+			position += numSkipped;
+			return numSkipped;
+		}
+
+		@Override
+		public void close() {
+			// no-op, the channel is closed by the ZipFileInput
+		}
+	}
+
 	/**
 	 * Iterator for the file headers in the Zip file.
 	 */
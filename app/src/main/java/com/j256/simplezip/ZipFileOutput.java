@@ -10,10 +10,12 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import com.abdurazaaqmohammed.utils.FileUtils;
 import com.j256.simplezip.codec.DeflatorFileDataEncoder;
 import com.j256.simplezip.codec.FileDataEncoder;
+import com.j256.simplezip.codec.ParallelDeflatorFileDataEncoder;
 import com.j256.simplezip.codec.SimpleZipFileDataEncoder;
 import com.j256.simplezip.codec.StoredFileDataEncoder;
 import com.j256.simplezip.format.CompressionMethod;
@@ -48,6 +50,8 @@ public class ZipFileOutput implements Closeable {
 	private boolean fileFinished = true;
 	private boolean zipFinished;
 	private long fileCount;
+	private Executor deflateExecutor;
+	private int deflateBlocksInFlight;
 
 	/**
 	 * Start writing a Zip-file to a file-path. You must call {@link #close()} to close the stream when you are done.
@@ -91,6 +95,22 @@ public class ZipFileOutput implements Closeable {
 		bufferedOutputStream.enableBuffer(maxSizeBuffered, maxSizeInMemory);
 	}
 
+	/**
+	 * Compress DEFLATED file-data in blocks on the executor instead of all on the calling thread. See
+	 * {@link ParallelDeflatorFileDataEncoder}. The output is still a standard deflate stream but it is a few bytes
+	 * larger per block and not byte-for-byte the same as without this.
+	 * 
+	 * @param executor
+	 *            Where the blocks are compressed, or null to turn this off again.
+	 * @param maxBlocksInFlight
+	 *            Maximum number of blocks of {@link ParallelDeflatorFileDataEncoder#DEFAULT_BLOCK_SIZE} bytes that
+	 *            are being compressed or waiting to be written at once. Usually about twice the number of threads.
+	 */
+	public void enableParallelDeflate(Executor executor, int maxBlocksInFlight) {
+		this.deflateExecutor = executor;
+		this.deflateBlocksInFlight = maxBlocksInFlight;
+	}
+
 	/**
 	 * Write a file-header which starts the Zip-file. This actually may or may not actually write it to disk depending
 	 * on buffering.
@@ -506,6 +526,10 @@ public class ZipFileOutput implements Closeable {
 	private void assignFileDataEncoder(int compressionMethod) {
 		if (compressionMethod == CompressionMethod.NONE.getValue()) {
 			this.fileDataEncoder = new StoredFileDataEncoder(bufferedOutputStream);
+		} else if (compressionMethod == CompressionMethod.DEFLATED.getValue() && deflateExecutor != null) {
+			this.fileDataEncoder = new ParallelDeflatorFileDataEncoder(bufferedOutputStream,
+					currentFileHeader.getCompressionLevel(), deflateExecutor,
+					ParallelDeflatorFileDataEncoder.DEFAULT_BLOCK_SIZE, deflateBlocksInFlight);
 		} else if (compressionMethod == CompressionMethod.DEFLATED.getValue()) {
 			this.fileDataEncoder =
 					new DeflatorFileDataEncoder(bufferedOutputStream, currentFileHeader.getCompressionLevel());
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
 
+import com.abdurazaaqmohammed.utils.BufferPool;
 import com.j256.simplezip.IoUtils;
 
 /**
@@ -13,10 +14,12 @@ import com.j256.simplezip.IoUtils;
  */
 public class DeflatorFileDataEncoder implements FileDataEncoder {
 
+	/** size of the buffer the deflater writes into, larger than the standard size to make fewer calls into zlib */
+	static final int BUFFER_SIZE = 16 * IoUtils.STANDARD_BUFFER_SIZE;
+
 	private final Deflater deflater;
 	private final OutputStream outputStream;
-	private byte[] encodeBuffer = new byte[IoUtils.STANDARD_BUFFER_SIZE];
-	private byte[] tmpBuffer = new byte[IoUtils.STANDARD_BUFFER_SIZE];
+	private byte[] tmpBuffer = BufferPool.acquire(BUFFER_SIZE);
 
 	public DeflatorFileDataEncoder(OutputStream outputStream, int level) {
 		this.outputStream = outputStream;
@@ -28,13 +31,12 @@ public class DeflatorFileDataEncoder implements FileDataEncoder {
 		if (length == 0) {
 			return;
 		}
-		// deflater is using our buffer
-		if (length > encodeBuffer.length) {
-			encodeBuffer = new byte[length];
+		// the deflater reads straight from the caller's buffer, which is fine because it consumes all of the input
+		// before we return
+		deflater.setInput(outputBuffer, offset, length);
+		while (!deflater.needsInput()) {
+			emptyDeflaterBuffer();
 		}
-		System.arraycopy(outputBuffer, offset, encodeBuffer, 0, length);
-		deflater.setInput(encodeBuffer, 0, length);
-		emptyDeflaterBuffer();
 	}
 
 	@Override
@@ -46,6 +48,8 @@ public class DeflatorFileDataEncoder implements FileDataEncoder {
 		}
 		// deflater end must be called after the close
 		deflater.end();
+		BufferPool.release(tmpBuffer);
+		tmpBuffer = null;
 	}
 
 	/**
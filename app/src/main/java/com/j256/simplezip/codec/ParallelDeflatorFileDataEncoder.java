@@ -0,0 +1,220 @@
+package com.j256.simplezip.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.Deflater;
+
+import com.abdurazaaqmohammed.utils.BufferPool;
+
+/**
+ * Encoder for the DEFLATED Zip file format that compresses blocks of the data in parallel, the way pigz does. Every
+ * block but the last ends with a sync-flush so the compressed blocks can simply be written one after the other, and
+ * each block is primed with the last 32k of the block before it so the compression ratio stays close to that of
+ * {@link DeflatorFileDataEncoder}.
+ *
+ * Data that fits in a single block is compressed on the calling thread. Blocks come from the {@link BufferPool} and go
+ * back once they have been written and the block after them, which uses them as its dictionary, is done. If encoding or
+ * writing fails the blocks still in flight are dropped and go back as well, the encoder cannot be used after that.
+ */
+public class ParallelDeflatorFileDataEncoder implements FileDataEncoder {
+
+	/** default size of the blocks that are compressed independently */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+	/** the maximum distance that a deflate back-reference can reach */
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private final OutputStream outputStream;
+	private final int level;
+	private final Executor executor;
+	private final int blockSize;
+	private final int maxBlocksInFlight;
+	private final Queue<FutureTask<byte[]>> blocksInFlight = new ArrayDeque<>();
+	private final Queue<byte[]> blockDataInFlight = new ArrayDeque<>();
+
+	private byte[] block;
+	private int blockLength;
+	private byte[] previousBlock;
+	/** data of the last block written, the block after it may still need it as its dictionary */
+	private byte[] writtenBlock;
+	/** set once something failed, blocks not started yet are skipped */
+	private volatile boolean abandoned;
+
+	/**
+	 * @param executor
+	 *            Where the blocks are compressed. The calling thread compresses any block the executor has not started
+	 *            by the time its output is needed, so a busy or single-threaded executor is fine.
+	 * @param maxBlocksInFlight
+	 *            Maximum number of blocks being compressed or waiting to be written at once, this bounds the memory
+	 *            used to about twice this many blocks.
+	 */
+	public ParallelDeflatorFileDataEncoder(OutputStream outputStream, int level, Executor executor, int blockSize,
+			int maxBlocksInFlight) {
+		if (blockSize < DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("blockSize " + blockSize + " should be >= " + DICTIONARY_SIZE);
+		}
+		this.outputStream = outputStream;
+		this.level = level;
+		this.executor = executor;
+		this.blockSize = blockSize;
+		this.maxBlocksInFlight = Math.max(1, maxBlocksInFlight);
+		this.block = BufferPool.acquire(blockSize);
+	}
+
+	@Override
+	public void encode(byte[] inputBuffer, int offset, int length) throws IOException {
+		if (abandoned) {
+			throw new IOException("encoder can no longer be used after a failure");
+		}
+		try {
+			while (length > 0) {
+				if (blockLength == blockSize) {
+					submitBlock(false);
+				}
+				int num = Math.min(length, blockSize - blockLength);
+				System.arraycopy(inputBuffer, offset, block, blockLength, num);
+				blockLength += num;
+				offset += num;
+				length -= num;
+			}
+		} catch (Throwable th) {
+			abandon();
+			throw th;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (abandoned) {
+			return;
+		}
+		try {
+			if (blocksInFlight.isEmpty()) {
+				// everything fit in one block, no need to hand it to another thread
+				outputStream.write(deflateBlock(block, blockLength, previousBlock, true));
+				BufferPool.release(block);
+				block = null;
+			} else {
+				submitBlock(true);
+				while (!blocksInFlight.isEmpty()) {
+					writeFirstBlock();
+				}
+			}
+		} catch (Throwable th) {
+			abandon();
+			throw th;
+		}
+		BufferPool.release(writtenBlock);
+		previousBlock = null;
+		writtenBlock = null;
+	}
+
+	private void submitBlock(boolean last) throws IOException {
+		final byte[] data = block;
+		final int length = blockLength;
+		final byte[] dictionary = previousBlock;
+		FutureTask<byte[]> task = new FutureTask<>(() -> abandoned ? null : deflateBlock(data, length, dictionary, last));
+		blocksInFlight.add(task);
+		blockDataInFlight.add(data);
+		executor.execute(task);
+		previousBlock = data;
+		block = (last ? null : BufferPool.acquire(blockSize));
+		blockLength = 0;
+		while (blocksInFlight.size() >= maxBlocksInFlight) {
+			writeFirstBlock();
+		}
+	}
+
+	private void writeFirstBlock() throws IOException {
+		// left in the queues until it is written so a failure releases it with the rest
+		FutureTask<byte[]> task = blocksInFlight.peek();
+		// no-op if the executor already started it, otherwise we do it ourselves instead of waiting in line
+		task.run();
+		try {
+			outputStream.write(task.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a deflated block");
+		} catch (ExecutionException e) {
+			throw new IOException("could not deflate block", e.getCause());
+		}
+		blocksInFlight.remove();
+		// this block is done so the one before it is no longer needed as a dictionary
+		BufferPool.release(writtenBlock);
+		writtenBlock = blockDataInFlight.remove();
+	}
+
+	/**
+	 * Release every block after a failure. Blocks that are being compressed still read their data and the block before
+	 * it, so they are waited for first, the ones not started yet return at once.
+	 */
+	private void abandon() {
+		abandoned = true;
+		boolean interrupted = false;
+		for (FutureTask<byte[]> task : blocksInFlight) {
+			task.run();
+			while (true) {
+				try {
+					task.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		for (byte[] data : blockDataInFlight) {
+			BufferPool.release(data);
+		}
+		blocksInFlight.clear();
+		blockDataInFlight.clear();
+		BufferPool.release(block);
+		BufferPool.release(writtenBlock);
+		block = null;
+		previousBlock = null;
+		writtenBlock = null;
+	}
+
+	private byte[] deflateBlock(byte[] data, int length, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true /* no wrap */);
+		try {
+			if (dictionary != null) {
+				// pooled blocks may be larger than the block size
+				deflater.setDictionary(dictionary, blockSize - DICTIONARY_SIZE, DICTIONARY_SIZE);
+			}
+			deflater.setInput(data, 0, length);
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = BufferPool.acquire(DeflatorFileDataEncoder.BUFFER_SIZE);
+			try {
+				if (last) {
+					deflater.finish();
+					while (!deflater.finished()) {
+						compressed.write(buffer, 0, deflater.deflate(buffer));
+					}
+				} else {
+					// sync-flush leaves the stream byte aligned and open so the next block can follow on directly
+					int num;
+					do {
+						num = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+						compressed.write(buffer, 0, num);
+					} while (num == buffer.length);
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+			return compressed.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+}
@@ -2,6 +2,7 @@ package com.j256.simplezip.format;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.j256.simplezip.IoUtils;
 import com.j256.simplezip.RewindableInputStream;
@@ -15,6 +16,8 @@ public class ZipCentralDirectoryEnd {
 
 	/** signature that is expected to be at the start of the central directory */
 	private static final int EXPECTED_SIGNATURE = 0x6054b50;
+	/** size of the fields after the signature, the disk numbers through the comment length */
+	private static final int FIXED_SIZE = 18;
 	/** This is the minimum size that this header will take on disk. */
 	public static final int MINIMUM_READ_SIZE = 4 * 2 + 2 * 4 + 2;
 
@@ -51,20 +54,21 @@ public class ZipCentralDirectoryEnd {
 	 */
 	public static ZipCentralDirectoryEnd read(RewindableInputStream inputStream) throws IOException {
 
-		int signature = IoUtils.readInt(inputStream, "ZipCentralDirectoryEnd.signature");
+		int signature = inputStream.readLittleEndian(4, "ZipCentralDirectoryEnd.signature").getInt();
 		if (signature != EXPECTED_SIGNATURE) {
 			inputStream.rewind(4);
 			return null;
 		}
 
+		ByteBuffer fields = inputStream.readLittleEndian(FIXED_SIZE, "ZipCentralDirectoryEnd");
 		Builder builder = new ZipCentralDirectoryEnd.Builder();
-		builder.diskNumber = IoUtils.readShort(inputStream, "ZipCentralDirectoryEnd.diskNumber");
-		builder.diskNumberStart = IoUtils.readShort(inputStream, "ZipCentralDirectoryEnd.diskNumberStart");
-		builder.numRecordsOnDisk = IoUtils.readShort(inputStream, "ZipCentralDirectoryEnd.numRecordsOnDisk");
-		builder.numRecordsTotal = IoUtils.readShort(inputStream, "ZipCentralDirectoryEnd.numRecordsTotal");
-		builder.directorySize = IoUtils.readInt(inputStream, "ZipCentralDirectoryEnd.sizeDirectory");
-		builder.directoryOffset = IoUtils.readInt(inputStream, "ZipCentralDirectoryEnd.directoryOffset");
-		int commentLength = IoUtils.readShort(inputStream, "ZipCentralDirectoryEnd.commentLength");
+		builder.diskNumber = IoUtils.getUnsignedShort(fields);
+		builder.diskNumberStart = IoUtils.getUnsignedShort(fields);
+		builder.numRecordsOnDisk = IoUtils.getUnsignedShort(fields);
+		builder.numRecordsTotal = IoUtils.getUnsignedShort(fields);
+		builder.directorySize = IoUtils.getUnsignedInt(fields);
+		builder.directoryOffset = IoUtils.getUnsignedInt(fields);
+		int commentLength = IoUtils.getUnsignedShort(fields);
 		builder.commentBytes = IoUtils.readBytes(inputStream, commentLength, "ZipCentralDirectoryEnd.comment");
 
 		return builder.build();
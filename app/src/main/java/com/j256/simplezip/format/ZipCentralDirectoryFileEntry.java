@@ -4,6 +4,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 import java.util.Set;
 
@@ -22,6 +23,8 @@ public class ZipCentralDirectoryFileEntry {
 
 	/** signature that is expected to be at the start of the central directory */
 	private static final int EXPECTED_SIGNATURE = 0x2014b50;
+	/** size of the fields after the signature, the versions through the local header offset */
+	private static final int FIXED_SIZE = 42;
 	public static final int INTERNAL_ATTRIBUTES_TEXT_FILE = (1 << 0);
 	public static final int DEFAULT_DISK_NUMBER = 0;
 	/** This is the minimum size that this header will take on disk. */
@@ -81,33 +84,30 @@ public class ZipCentralDirectoryFileEntry {
 	 */
 	public static ZipCentralDirectoryFileEntry read(RewindableInputStream inputStream) throws IOException {
 
-		int signature = IoUtils.readInt(inputStream, "ZipCentralDirectoryFileEntry.signature");
+		int signature = inputStream.readLittleEndian(4, "ZipCentralDirectoryFileEntry.signature").getInt();
 		if (signature != EXPECTED_SIGNATURE) {
 			inputStream.rewind(4);
 			return null;
 		}
 
+		ByteBuffer fields = inputStream.readLittleEndian(FIXED_SIZE, "ZipCentralDirectoryFileEntry");
 		Builder builder = new ZipCentralDirectoryFileEntry.Builder();
-		builder.versionMade = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.versionMade");
-		builder.versionNeeded = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.versionNeeded");
-		builder.generalPurposeFlags =
-				IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.generalPurposeFlags");
-		builder.compressionMethod = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.compressionMethod");
-		builder.lastModifiedTime = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.lastModifiedTime");
-		builder.lastModifiedDate = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.lastModifiedDate");
-		builder.crc32 = IoUtils.readIntAsLong(inputStream, "ZipCentralDirectoryFileEntry.crc32");
-		builder.compressedSize = IoUtils.readInt(inputStream, "ZipCentralDirectoryFileEntry.compressedSize");
-		builder.uncompressedSize = IoUtils.readInt(inputStream, "ZipCentralDirectoryFileEntry.uncompressedSize");
-		int fileNameLength = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.fileNameLength");
-		int extraFieldLength = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.extraFieldLength");
-		int commentLength = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.commentLength");
-		builder.diskNumberStart = IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.diskNumberStart");
-		builder.internalFileAttributes =
-				IoUtils.readShort(inputStream, "ZipCentralDirectoryFileEntry.internalFileAttributes");
-		builder.externalFileAttributes =
-				IoUtils.readInt(inputStream, "ZipCentralDirectoryFileEntry.externalFileAttributes");
-		builder.relativeOffsetOfLocalHeader =
-				IoUtils.readInt(inputStream, "ZipCentralDirectoryFileEntry.relativeOffsetOfLocalHeader");
+		builder.versionMade = IoUtils.getUnsignedShort(fields);
+		builder.versionNeeded = IoUtils.getUnsignedShort(fields);
+		builder.generalPurposeFlags = IoUtils.getUnsignedShort(fields);
+		builder.compressionMethod = IoUtils.getUnsignedShort(fields);
+		builder.lastModifiedTime = IoUtils.getUnsignedShort(fields);
+		builder.lastModifiedDate = IoUtils.getUnsignedShort(fields);
+		builder.crc32 = IoUtils.getUnsignedInt(fields);
+		builder.compressedSize = IoUtils.getUnsignedInt(fields);
+		builder.uncompressedSize = IoUtils.getUnsignedInt(fields);
+		int fileNameLength = IoUtils.getUnsignedShort(fields);
+		int extraFieldLength = IoUtils.getUnsignedShort(fields);
+		int commentLength = IoUtils.getUnsignedShort(fields);
+		builder.diskNumberStart = IoUtils.getUnsignedShort(fields);
+		builder.internalFileAttributes = IoUtils.getUnsignedShort(fields);
+		builder.externalFileAttributes = fields.getInt();
+		builder.relativeOffsetOfLocalHeader = IoUtils.getUnsignedInt(fields);
 
 		builder.fileNameBytes = IoUtils.readBytes(inputStream, fileNameLength, "ZipCentralDirectoryFileEntry.fileName");
 		builder.extraFieldBytes =
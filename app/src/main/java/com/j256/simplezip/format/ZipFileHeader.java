@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -28,6 +29,8 @@ import com.j256.simplezip.format.extra.Zip64ExtraField;
 public class ZipFileHeader {
 
 	private static int EXPECTED_SIGNATURE = 0x4034b50;
+	/** size of the fields after the signature, the versions through the extra length */
+	private static final int FIXED_SIZE = 26;
 
 	private final int versionNeeded;
 	private final int generalPurposeFlags;
@@ -71,23 +74,24 @@ public class ZipFileHeader {
 		/*
 		 * When reading a file-header we aren't sure if this is a file-header or the start of the central directory.
 		 */
-		int first = IoUtils.readInt(inputStream, "ZipFileHeader.signature");
+		int first = inputStream.readLittleEndian(4, "ZipFileHeader.signature").getInt();
 		if (first != EXPECTED_SIGNATURE) {
 			inputStream.rewind(4);
 			return null;
 		}
 
+		ByteBuffer fields = inputStream.readLittleEndian(FIXED_SIZE, "ZipFileHeader");
 		Builder builder = new ZipFileHeader.Builder();
-		builder.versionNeeded = IoUtils.readShort(inputStream, "ZipFileHeader.versionNeeded");
-		builder.generalPurposeFlags = IoUtils.readShort(inputStream, "ZipFileHeader.generalPurposeFlags");
-		builder.compressionMethod = IoUtils.readShort(inputStream, "ZipFileHeader.compressionMethod");
-		builder.lastModifiedTime = IoUtils.readShort(inputStream, "ZipFileHeader.lastModifiedTime");
-		builder.lastModifiedDate = IoUtils.readShort(inputStream, "ZipFileHeader.lastModifiedDate");
-		builder.crc32 = IoUtils.readIntAsLong(inputStream, "ZipFileHeader.crc32");
-		builder.compressedSize = IoUtils.readInt(inputStream, "ZipFileHeader.compressedSize");
-		builder.uncompressedSize = IoUtils.readInt(inputStream, "ZipFileHeader.uncompressedSize");
-		int fileNameLength = IoUtils.readShort(inputStream, "ZipFileHeader.fileNameLength");
-		int extraLength = IoUtils.readShort(inputStream, "ZipFileHeader.extraLength");
+		builder.versionNeeded = IoUtils.getUnsignedShort(fields);
+		builder.generalPurposeFlags = IoUtils.getUnsignedShort(fields);
+		builder.compressionMethod = IoUtils.getUnsignedShort(fields);
+		builder.lastModifiedTime = IoUtils.getUnsignedShort(fields);
+		builder.lastModifiedDate = IoUtils.getUnsignedShort(fields);
+		builder.crc32 = IoUtils.getUnsignedInt(fields);
+		builder.compressedSize = IoUtils.getUnsignedInt(fields);
+		builder.uncompressedSize = IoUtils.getUnsignedInt(fields);
+		int fileNameLength = IoUtils.getUnsignedShort(fields);
+		int extraLength = IoUtils.getUnsignedShort(fields);
 		builder.fileNameBytes = IoUtils.readBytes(inputStream, fileNameLength, "ZipFileHeader.fileName");
 		builder.extraFieldBytes =
 				IoUtils.readBytes(inputStream, extraLength, "ZipFileHeader.extra");
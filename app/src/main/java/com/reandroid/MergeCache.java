@@ -0,0 +1,181 @@
+package com.reandroid;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.net.Uri;
+
+import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
+import com.abdurazaaqmohammed.AntiSplit.main.MyAPKLogger;
+import com.starry.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Merged APKs kept on disk by a digest of the splits they were merged from, so merging the same bundle or installed app
+ * again is a copy. The digest covers the name, CRC and size of every split (or of every entry of the split APKs when
+ * they are separate files), the deselected splits, the merge options and the version of this app.
+ * The least recently used outputs are deleted once the cache is over its budget.
+ */
+public class MergeCache {
+
+    private static final String EXTENSION = ".apk";
+
+    private static volatile long budget = 1024L * 1024 * 1024;
+    private static MergeCache instance;
+
+    private final File dir;
+
+    private MergeCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Not in the cache dir, the app clears that on start and on exit.
+     */
+    public static synchronized MergeCache get(Context context) {
+        if (instance == null) instance = new MergeCache(context.getDir("merge_cache", Context.MODE_PRIVATE));
+        return instance;
+    }
+
+    /**
+     * @param bytes 0 turns the cache off
+     */
+    public static void setBudget(long bytes) {
+        budget = Math.max(0, bytes);
+    }
+
+    /**
+     * Delete the least recently used outputs over the budget, after it was lowered.
+     */
+    public synchronized void trim() {
+        evict(0);
+    }
+
+    /**
+     * @return null if the bundle's central directory can't be read in place or the cache is off
+     */
+    public static String keyOf(SplitSlices bundle, List<String> deselected, boolean signApk, boolean force, Context context) throws IOException {
+        if (budget == 0 || bundle == null) return null;
+        MessageDigest md = newDigest(signApk, force, context);
+        if (!bundle.digestEntries(md, deselected)) return null;
+        if (deselected != null) for (String name : deselected) md.update(("-" + name).getBytes(StandardCharsets.UTF_8));
+        return toHex(md.digest());
+    }
+
+    /**
+     * @return null if one of the APKs in dir can't be read in place or the cache is off
+     */
+    public static String keyOf(File dir, boolean signApk, boolean force, Context context) throws IOException {
+        if (budget == 0) return null;
+        File[] apks = dir.listFiles((d, name) -> name.endsWith(".apk"));
+        if (apks == null || apks.length == 0) return null;
+        Arrays.sort(apks);
+        MessageDigest md = newDigest(signApk, force, context);
+        for (File apk : apks) {
+            md.update(apk.getName().getBytes(StandardCharsets.UTF_8));
+            try (SplitSlices split = SplitSlices.openFile(apk)) {
+                if (!split.digestEntries(md, null)) return null;
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Copy the cached merge for key to out.
+     * @return false if there is none
+     */
+    public boolean copyTo(String key, Uri out, MainActivity context) throws IOException {
+        File cached = new File(dir, key + EXTENSION);
+        // Only open it under the lock, the open stream can still be read if the file is evicted during the copy
+        InputStream cachedStream;
+        synchronized (this) {
+            if (!cached.isFile()) return false;
+            cachedStream = new FileInputStream(cached);
+            //noinspection ResultOfMethodCallIgnored
+            cached.setLastModified(System.currentTimeMillis());
+        }
+        MyAPKLogger logger = context.getLogger();
+        logger.logMessage("Same splits were merged before, copying the cached APK");
+        try (InputStream is = cachedStream; OutputStream os = FileUtils.getOutputStream(out, context)) {
+            long start = System.nanoTime();
+            logger.logMessage(com.abdurazaaqmohammed.utils.FileUtils.describeTransfer(com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, os), start));
+        }
+        return true;
+    }
+
+    /**
+     * Store a merged APK under key and evict the least recently used ones over the budget.
+     * @param move if merged is a temporary file that can be moved into the cache instead of copied
+     */
+    public synchronized void put(String key, File merged, boolean move) {
+        long size = merged.length();
+        if (size == 0 || size > budget) {
+            evict(0);
+            return;
+        }
+        evict(size);
+        File cached = new File(dir, key + EXTENSION);
+        File partial = new File(dir, key + ".tmp");
+        try {
+            if (!move || !merged.renameTo(partial)) com.abdurazaaqmohammed.utils.FileUtils.copyFile(merged, partial);
+            if (!partial.renameTo(cached)) throw new IOException("Could not rename " + partial);
+        } catch (IOException e) {
+            // Only a cache, the merge itself went fine
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+        }
+    }
+
+    /**
+     * Delete the least recently used outputs until there is room for incoming bytes.
+     */
+    private void evict(long incoming) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        List<File> cached = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(cached, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+        long total = incoming;
+        for (File file : cached) total += file.length();
+        for (File file : cached) {
+            if (total <= budget) break;
+            long length = file.length();
+            if (file.delete()) total -= length;
+        }
+    }
+
+    private static MessageDigest newDigest(boolean signApk, boolean force, Context context) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        String appVersion;
+        try {
+            // A newer version of the app may merge differently
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            appVersion = info.versionName + '/' + info.lastUpdateTime;
+        } catch (Exception e) {
+            appVersion = "";
+        }
+        md.update((appVersion + '/' + signApk + '/' + force + '/').getBytes(StandardCharsets.UTF_8));
+        return md;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+}
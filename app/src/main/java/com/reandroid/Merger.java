@@ -23,9 +23,10 @@ import android.text.TextUtils;
 
 import com.abdurazaaqmohammed.AntiSplit.R;
 import com.abdurazaaqmohammed.AntiSplit.main.MyAPKLogger;
-import com.abdurazaaqmohammed.utils.DeviceSpecsUtil;
+import com.abdurazaaqmohammed.utils.SplitListing;
 import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
 import com.abdurazaaqmohammed.utils.SignUtil;
+import com.android.apksig.internal.util.SharedWorkerPool;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.j256.simplezip.ZipFileInput;
 import com.j256.simplezip.format.ZipFileHeader;
@@ -50,24 +51,40 @@ import com.starry.FileUtils;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Merger {
 
     /** @noinspection ResultOfMethodCallIgnored*/
-    private static void extractAndLoad(Uri in, File cacheDir, MainActivity context, List<String> splits, ApkBundle bundle, MyAPKLogger logger) throws IOException {
+    private static void extractAndLoad(Uri in, File cacheDir, MainActivity context, List<String> splits, SplitListing listing, ApkBundle bundle, MyAPKLogger logger) throws IOException {
         logger.logMessage(in.getPath());
 
         //bundle.setAPKLogger(context.getLogger()); // This spams the log
         boolean checkSplits = splits != null && !splits.isEmpty();
+        // If the splits were listed already stop reading right after the last one needed, instead of going through any OBBs after it
+        Set<String> wanted = null;
+        if (listing != null) {
+            wanted = new HashSet<>(listing.getSplits());
+            if (checkSplits) for (String name : splits) {
+                if (wanted.remove(name)) logger.logMessage(context.getRss().getString(R.string.skipping) + name + context.getRss().getString(R.string.unselected));
+            }
+        }
         try (InputStream is = FileUtils.getInputStream(in, context);
-             ZipFileInput zis = new ZipFileInput(is)) {
+             ZipFileInput zis = new ZipFileInput(is, false)) {
             ZipFileHeader header;
-            while ((header = zis.readFileHeader()) != null) {
+            while ((header = wanted == null ? zis.readFileHeader() : zis.readFileHeader(wanted)) != null) {
                 String name = header.getFileName();
                 if (name.endsWith(".apk")) {
                     if ((checkSplits && splits.contains(name)))
@@ -100,21 +117,24 @@ public class Merger {
 
             // Check if already copied the file earlier to get list of splits.
             long size;
-            boolean notAlreadyCopied = DeviceSpecsUtil.zipFile == null;
+            File listed = listing == null ? null : listing.getFile();
+            boolean notAlreadyCopied = listed == null;
             if (notAlreadyCopied) {
                 File input = new File(FileUtils.getPath(in, context));
                 boolean couldNotRead = !input.canRead();
                 if (couldNotRead) try(InputStream is = context.getContentResolver().openInputStream(in)) {
                     File parentFile = cacheDir.getParentFile();
-                    com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, input = new File(parentFile != null && parentFile.canRead() ? parentFile : cacheDir, input.getName()));
+                    long start = System.nanoTime();
+                    long copied = com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, input = new File(parentFile != null && parentFile.canRead() ? parentFile : cacheDir, input.getName()));
+                    logger.logMessage(com.abdurazaaqmohammed.utils.FileUtils.describeTransfer(copied, start));
                 }
                 size = input.length();
-                ArchiveFile zf = new ArchiveFile(input);
-                extractZipFile(zf, checkSplits, splits, cacheDir, logger, context.getRss());
+                extractZipFile(input, checkSplits, splits, cacheDir, logger, context.getRss());
                 if (couldNotRead) input.delete();
             } else {
-                extractZipFile(DeviceSpecsUtil.zipFile, checkSplits, splits, cacheDir, logger, context.getRss());
-                size = DeviceSpecsUtil.zipFile.size();
+                // Extract from the file the splits were listed from, the Uri's own path may not be readable
+                size = listed.length();
+                extractZipFile(listed, checkSplits, splits, cacheDir, logger, context.getRss());
             }
             try {
                 bundle.loadApkDirectory(cacheDir);
@@ -130,50 +150,130 @@ public class Merger {
         }
     }
 
-    private static void extractZipFile(ArchiveFile zf, boolean checkSplits, List<String> splits, File cacheDir, APKLogger logger, Resources rss) throws IOException {
-        for(InputSource archiveEntry : zf.getInputSources()) {
-            String name = archiveEntry.getName();
-            if (name.endsWith(".apk")) {
-                if ((checkSplits && splits.contains(name)))
-                    logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.unselected));
-                else try (InputStream is = archiveEntry.openStream()) {
-                    com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, new File(cacheDir, name));
+    /**
+     * Read the splits straight out of the bundle without copying them to cacheDir.
+     * @return false if the bundle has to be extracted instead
+     */
+    private static boolean loadInPlace(SplitSlices slices, ApkBundle bundle, MainActivity context, List<String> splits, MyAPKLogger logger) {
+        if (slices == null) return false;
+        try {
+            return slices.load(bundle, splits, logger, context.getRss());
+        } catch (IOException e) {
+            // Nothing was added to the bundle, the extracting path will report the real problem if there is one
+            return false;
+        }
+    }
+
+    /**
+     * Copy the selected splits out of the bundle file into cacheDir, largest first on the shared worker pool so the
+     * base APK doesn't end up alone on one thread at the end. Every entry is read with positional reads of its own.
+     */
+    private static void extractZipFile(File zip, boolean checkSplits, List<String> splits, File cacheDir, APKLogger logger, Resources rss) throws IOException {
+        List<SplitSlices.SliceInputSource> sources;
+        try (SplitSlices bundle = SplitSlices.openFile(zip)) {
+            sources = bundle.readSources();
+            if (sources == null) {
+                // Zip64 or something else only ArchiveFile reads, one entry at a time
+                try (ArchiveFile zf = new ArchiveFile(zip)) {
+                    for (InputSource archiveEntry : zf.getInputSources()) {
+                        File file = toExtractedFile(archiveEntry.getName(), checkSplits, splits, cacheDir, logger, rss);
+                        if (file != null) try (InputStream is = archiveEntry.openStream()) {
+                            com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, file);
+                        }
+                    }
+                }
+                return;
+            }
+            final List<SplitSlices.SliceInputSource> selected = new ArrayList<>(sources.size());
+            final List<File> files = new ArrayList<>(sources.size());
+            for (SplitSlices.SliceInputSource source : sources) {
+                File file = toExtractedFile(source.getName(), checkSplits, splits, cacheDir, logger, rss);
+                if (file != null) {
+                    selected.add(source);
+                    files.add(file);
                 }
-            } else logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.not_apk));
+            }
+            if (selected.isEmpty()) return;
+            final Integer[] order = new Integer[selected.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (i1, i2) -> Long.compare(selected.get(i2).getLength(), selected.get(i1).getLength()));
+
+            final AtomicInteger next = new AtomicInteger();
+            try {
+                SharedWorkerPool.execute(() -> () -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < order.length) {
+                        SplitSlices.SliceInputSource source = selected.get(order[i]);
+                        try (InputStream is = source.openStream();
+                             RandomAccessFile raf = new RandomAccessFile(files.get(order[i]), "rw")) {
+                            // Size is known from the central directory, allocate it up front instead of growing the file
+                            raf.setLength(source.getLength());
+                            com.abdurazaaqmohammed.utils.FileUtils.copyFile(is, new FileOutputStream(raf.getFD()));
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }, Math.min(SharedWorkerPool.PARALLELISM, order.length));
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return where to extract the entry, or null if it is not a selected split
+     */
+    private static File toExtractedFile(String name, boolean checkSplits, List<String> splits, File cacheDir, APKLogger logger, Resources rss) throws IOException {
+        if (!name.endsWith(".apk")) {
+            logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.not_apk));
+            return null;
         }
-        zf.close();
+        if (checkSplits && splits.contains(name)) {
+            logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.unselected));
+            return null;
+        }
+        File file = new File(cacheDir, name);
+        if (!file.getCanonicalPath().startsWith(cacheDir.getCanonicalPath() + File.separator))
+            throw new IOException("Zip entry is outside of the target dir: " + name);
+        return file;
+    }
+
+    public static Result run(ApkBundle bundle, File cacheDir, Uri out, MainActivity context, boolean signApk, boolean force, String cacheKey) throws IOException, InterruptedException {
+        return run(bundle, cacheDir, cacheDir, out, context, signApk, force, cacheKey);
     }
 
-    public static void run(ApkBundle bundle, File cacheDir, Uri out, MainActivity context, boolean signApk, boolean force) throws IOException, InterruptedException {
+    /**
+     * @param splitsDir where the bundle's split APK files are, so entries the merge does not change can be copied from them as they are
+     * @param cacheKey from {@link MergeCache#keyOf}, to keep the output in the {@link MergeCache}, or null
+     */
+    public static Result run(ApkBundle bundle, File splitsDir, File cacheDir, Uri out, MainActivity context, boolean signApk, boolean force, String cacheKey) throws IOException, InterruptedException {
         MyAPKLogger logger = context.getLogger();
         logger.logMessage("Found modules: " + bundle.getApkModuleList().size());
         final boolean[] saveToCacheDir = {true}; // I found writeApk(OutputStream) is really slow and writing to file and copying is actually faster
         final boolean[] sign = {signApk};
-        for(File split : cacheDir.listFiles()) {
-            String splitName = split.getName();
-            String arch = null;
-            String var = "x86";
-            if(splitName.contains(var)) arch = var;
-            else if(splitName.contains(var = "x86_64") || splitName.contains("x86-64") || splitName.contains("x64")) arch = var;
-            else if(splitName.contains("arm64")) arch = "arm64-v8a";
-            else if(splitName.contains("v7a") || splitName.contains("arm7")) arch = "armeabi-v7a";
-            if(arch != null) try (ApkModule zf = ApkModule.loadApkFile(split, splitName)) {
-                if (zf.containsFile("lib" + File.separator + arch + File.separator + "libpairipcore.so")) {
-                    final CountDownLatch latch = new CountDownLatch(1);
-                    context.getHandler().post(() ->
-                        context.runOnUiThread(new MaterialAlertDialogBuilder(context).setTitle(context.getRss().getString(R.string.warning)).setMessage(R.string.pairip_warning)
-                        .setPositiveButton("OK", (dialog, which) -> {
-                            saveToCacheDir[0] = true;
-                            sign[0] = false;
-                            latch.countDown();
-                        }).setNegativeButton(context.getRss().getString(R.string.cancel), (dialog, which) -> {
-                            context.startActivity(new Intent(context, MainActivity.class));
-                            context.finishAffinity();
-                            latch.countDown();
-                        }).create()::show));
-                    latch.await();
-                    break;
-                }
+        List<SplitEntryIndex> splitIndexes = SplitEntryIndex.of(bundle);
+        for (SplitEntryIndex split : splitIndexes) {
+            logger.logMessage(String.format(Locale.ROOT, "%s: %d dex, %d native libraries, %.1f MB of assets", split.getModuleName(),
+                    split.getDexCount(), split.getNativeLibraryCount(), split.getAssetBytes() / (1024.0 * 1024)));
+        }
+        // Look at the lib/ entries of every split, the ABI in a split's name is not reliable (x86_64 contains x86)
+        for (SplitEntryIndex split : splitIndexes) {
+            if (split.findNativeLibrary("libpairipcore.so") != null) {
+                final CountDownLatch latch = new CountDownLatch(1);
+                context.getHandler().post(() ->
+                    context.runOnUiThread(new MaterialAlertDialogBuilder(context).setTitle(context.getRss().getString(R.string.warning)).setMessage(R.string.pairip_warning)
+                    .setPositiveButton("OK", (dialog, which) -> {
+                        saveToCacheDir[0] = true;
+                        sign[0] = false;
+                        latch.countDown();
+                    }).setNegativeButton(context.getRss().getString(R.string.cancel), (dialog, which) -> {
+                        context.startActivity(new Intent(context, MainActivity.class));
+                        context.finishAffinity();
+                        latch.countDown();
+                    }).create()::show));
+                latch.await();
+                break;
             }
         }
         try (ApkModule mergedModule = bundle.mergeModules(!force)) { // I guess force meant force throw ..
@@ -257,40 +357,104 @@ public class Merger {
             logger.logMessage((R.string.saving));
 
             File temp;
+            OutputVerifier.Report report = null;
+            Uri signedApk = null;
             if (sign[0]) {
-                mergedModule.writeApk(temp = new File(cacheDir, "temp.apk"));
                 logger.logMessage((R.string.signing));
                 boolean saveToCache = com.abdurazaaqmohammed.utils.FileUtils.doesNotHaveStoragePerm(context);
                 String p;
                 File signed = new File(saveToCache || (saveToCache = TextUtils.isEmpty(p = FileUtils.getPath(out, context))) ? (cacheDir + File.separator + "signed.apk") : p);
-                try {
-                    SignUtil.signDebugKey(context, temp, signed);
-                    if (saveToCache) try(OutputStream os = context.getContentResolver().openOutputStream(signedApk = out)) {
-                        com.abdurazaaqmohammed.utils.FileUtils.copyFile(signed, os);
-                    } else signedApk = FileProvider.getUriForFile(context, "com.abdurazaaqmohammed.AntiSplit.fileprovider", signed);
+                try (RawEntryIndex rawEntries = RawEntryIndex.ofDirectory(splitsDir, signed)) {
+                    // Signed while it is written, no unsigned temp.apk to read back
+                    SignUtil.signDebugKey(context, mergedModule, signed, rawEntries);
                 } catch (Exception e) {
+                    // Only a failure to sign falls back, PseudoApkSigner writes the output itself
+                    mergedModule.writeApk(temp = new File(cacheDir, "temp.apk"));
                     SignUtil.signPseudoApkSigner(temp, context, out, e);
+                    return new Result(null, null);
                 }
+                // Checked while it is copied out, both read it from the page cache
+                OutputVerifier.Check check = OutputVerifier.start(signed, true, getName(out, signed));
+                if (saveToCache) try(OutputStream os = context.getContentResolver().openOutputStream(signedApk = out)) {
+                    long start = System.nanoTime();
+                    logger.logMessage(com.abdurazaaqmohammed.utils.FileUtils.describeTransfer(com.abdurazaaqmohammed.utils.FileUtils.copyFile(signed, os), start));
+                } else signedApk = FileProvider.getUriForFile(context, "com.abdurazaaqmohammed.AntiSplit.fileprovider", signed);
+                report = await(check, logger);
+                // Only signed.apk in cacheDir is ours to move, and only once it passed if it was checked at all
+                if (cacheKey != null && (check == null || report.isPassed())) MergeCache.get(context).put(cacheKey, signed, saveToCache);
             } else if (saveToCacheDir[0]) {
                 temp = new File(cacheDir, "temp.apk");
                 mergedModule.writeApk(temp);
+                OutputVerifier.Check check = OutputVerifier.start(temp, false, getName(out, temp));
                 try(OutputStream os = FileUtils.getOutputStream(out, context)) {
-                    com.abdurazaaqmohammed.utils.FileUtils.copyFile(temp, os);
+                    long start = System.nanoTime();
+                    logger.logMessage(com.abdurazaaqmohammed.utils.FileUtils.describeTransfer(com.abdurazaaqmohammed.utils.FileUtils.copyFile(temp, os), start));
                 }
+                report = await(check, logger);
+                // Not when the pairip warning turned signing off, that is not what was asked for, nor before a check passed
+                if (cacheKey != null && sign[0] == signApk && (check == null || report.isPassed())) MergeCache.get(context).put(cacheKey, temp, true);
             } else {
                 try(OutputStream os = FileUtils.getOutputStream(out, context)) {
                     mergedModule.writeApk(os);
                 }
+                // Nothing on disk to read back, the output only exists behind the Uri
+                if (OutputVerifier.isEnabled()) logger.logMessage("Written straight to the output, not checked");
             }
+            return new Result(report, signedApk);
         }
     }
 
-    public static Uri signedApk;
+    private static String getName(Uri out, File apk) {
+        String name = out.getLastPathSegment();
+        return TextUtils.isEmpty(name) ? apk.getName() : name;
+    }
+
+    private static OutputVerifier.Report await(OutputVerifier.Check check, MyAPKLogger logger) {
+        if (check == null) return null;
+        OutputVerifier.Report report = check.await();
+        logger.logMessage(report.toString());
+        return report;
+    }
+
+    /**
+     * What one merge made, each merge gets its own so several can run at once.
+     */
+    public static class Result {
+        private final OutputVerifier.Report report;
+        private final Uri signedApk;
+
+        Result(OutputVerifier.Report report, Uri signedApk) {
+            this.report = report;
+            this.signedApk = signedApk;
+        }
+
+        /**
+         * @return the {@link OutputVerifier} report, or null if the output was not checked
+         */
+        public OutputVerifier.Report getReport() {
+            return report;
+        }
 
-    public static void run(Uri in, File cacheDir, Uri out, MainActivity context, List<String> splits, boolean signApk, boolean force) throws Exception {
+        /**
+         * @return the signed APK to offer for install, or null if it was not signed
+         */
+        public Uri getSignedApk() {
+            return signedApk;
+        }
+    }
+
+    /**
+     * @param listing the splits of in as listed for the split selection, or null if they were not listed
+     */
+    public static Result run(Uri in, File cacheDir, Uri out, MainActivity context, List<String> splits, SplitListing listing, boolean signApk, boolean force) throws Exception {
         MyAPKLogger logger = context.getLogger();
         logger.logMessage((R.string.searching));
-        try (ApkBundle bundle = new ApkBundle()) {
+        try (ApkBundle bundle = new ApkBundle();
+             SplitSlices slices = in == null ? null : SplitSlices.open(in, context)) {
+            String cacheKey = in == null ? MergeCache.keyOf(cacheDir, signApk, force, context) : MergeCache.keyOf(slices, splits, signApk, force, context);
+            if (cacheKey != null && MergeCache.get(context).copyTo(cacheKey, out, context)) {
+                return new Result(null, signApk ? out : null);
+            }
             if (in == null) {
                 // Multiple splits from a split apk, already copied to cache dir
                 try {
@@ -299,8 +463,8 @@ public class Merger {
                     throw(new IOException(fileNotFoundException.getMessage() + " file " + splits.toString(), fileNotFoundException));
                 }
             }
-            else extractAndLoad(in, cacheDir, context, splits, bundle, logger);
-            run(bundle, cacheDir, out, context, signApk, force);
+            else if (!loadInPlace(slices, bundle, context, splits, logger)) extractAndLoad(in, cacheDir, context, splits, listing, bundle, logger);
+            return run(bundle, cacheDir, out, context, signApk, force, cacheKey);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+package com.reandroid;
+
+import com.abdurazaaqmohammed.utils.TaskScheduler;
+import com.android.apksig.ApkVerifier;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.v1.V1SchemeVerifier;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Checks a merged APK right after it was written, while it is still in the page cache and while it is being copied to
+ * the output, so a broken merge is reported instead of found at install time.
+ * Signed outputs go through {@link ApkVerifier} (central directory against local headers, v1 entry digests, v2/v3
+ * content digests), unsigned ones get their central directory, local headers and CRCs checked.
+ */
+public class OutputVerifier {
+
+    private static final int MAX_LISTED_ERRORS = 5;
+
+    private static volatile boolean enabled;
+
+    public static void setEnabled(boolean enabled) {
+        OutputVerifier.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static class Report {
+        private final String name;
+        private final boolean signed;
+        private final List<String> errors = new ArrayList<>();
+        private final List<String> warnings = new ArrayList<>();
+        private final List<String> schemes = new ArrayList<>();
+        private long millis;
+        private boolean interrupted;
+
+        Report(String name, boolean signed) {
+            this.name = name;
+            this.signed = signed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSigned() {
+            return signed;
+        }
+
+        /**
+         * @return false if the check found errors or did not finish
+         */
+        public boolean isPassed() {
+            return !interrupted && errors.isEmpty();
+        }
+
+        /**
+         * @return true if waiting for the check was interrupted, so nothing is known about the output
+         */
+        public boolean isInterrupted() {
+            return interrupted;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public List<String> getWarnings() {
+            return warnings;
+        }
+
+        /**
+         * @return the signature schemes that verified, like v1 and v2, empty for an unsigned output
+         */
+        public List<String> getSchemes() {
+            return schemes;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Check of ").append(name);
+            if (interrupted) return sb.append(" was interrupted").toString();
+            if (isPassed()) {
+                sb.append(" passed in ").append(millis).append(" ms");
+                if (signed) sb.append(' ').append(schemes);
+                if (!warnings.isEmpty()) sb.append(", ").append(warnings.size()).append(" warnings");
+                return sb.toString();
+            }
+            sb.append(" failed with ").append(errors.size()).append(" errors:");
+            for (int i = 0; i < Math.min(errors.size(), MAX_LISTED_ERRORS); i++) sb.append('\n').append(errors.get(i));
+            if (errors.size() > MAX_LISTED_ERRORS) sb.append("\n...");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A check running on the CPU pool.
+     */
+    public static class Check {
+        private final FutureTask<Report> task;
+        private final String name;
+        private final boolean signed;
+
+        private Check(FutureTask<Report> task, String name, boolean signed) {
+            this.task = task;
+            this.name = name;
+            this.signed = signed;
+        }
+
+        /**
+         * @return the report, which does not pass and says so if the check was interrupted
+         */
+        public Report await() {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                Report report = new Report(name, signed);
+                report.interrupted = true;
+                return report;
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Start checking apk in the background, the caller copies it out meanwhile and then calls {@link Check#await()}.
+     * @param name what the report calls the APK
+     * @return null if checking is turned off
+     */
+    public static Check start(File apk, boolean signed, String name) {
+        if (!enabled) return null;
+        FutureTask<Report> task = new FutureTask<>(() -> verify(apk, signed, name));
+        TaskScheduler.submitCpu(task);
+        return new Check(task, name, signed);
+    }
+
+    public static Report verify(File apk, boolean signed, String name) {
+        Report report = new Report(name, signed);
+        long start = System.nanoTime();
+        try {
+            if (signed) verifySigned(apk, report);
+            else verifyZip(apk, report);
+        } catch (Exception e) {
+            report.errors.add(String.valueOf(e));
+        }
+        report.millis = (System.nanoTime() - start) / 1000000;
+        return report;
+    }
+
+    private static void verifySigned(File apk, Report report) throws Exception {
+        ApkVerifier.Result result = new ApkVerifier.Builder(apk)
+                .setRunnablesExecutor(RunnablesExecutor.MULTI_THREADED)
+                .build()
+                .verify();
+        for (ApkVerifier.IssueWithParams error : result.getAllErrors()) report.errors.add(error.toString());
+        for (ApkVerifier.IssueWithParams warning : result.getWarnings()) report.warnings.add(warning.toString());
+        if (!result.isVerified() && report.errors.isEmpty()) report.errors.add("No signature verified");
+        if (result.isVerifiedUsingV1Scheme()) report.schemes.add("v1");
+        if (result.isVerifiedUsingV2Scheme()) report.schemes.add("v2");
+        if (result.isVerifiedUsingV3Scheme()) report.schemes.add("v3");
+    }
+
+    /**
+     * Every local header has to match its central directory record and every entry has to inflate to its CRC, the
+     * entries are spread over the cores.
+     */
+    private static void verifyZip(File apk, Report report) throws Exception {
+        try (RandomAccessFile file = new RandomAccessFile(apk, "r")) {
+            DataSource source = DataSources.asDataSource(file);
+            ApkUtils.ZipSections sections = ApkUtils.findZipSections(source);
+            List<CentralDirectoryRecord> records = V1SchemeVerifier.parseZipCentralDirectory(source, sections);
+            long cdOffset = sections.getZipCentralDirectoryOffset();
+            String[] errors = new String[records.size()];
+            AtomicInteger next = new AtomicInteger();
+            RunnablesExecutor.MULTI_THREADED.execute(() -> () -> {
+                int i;
+                while ((i = next.getAndIncrement()) < errors.length) {
+                    CentralDirectoryRecord record = records.get(i);
+                    try {
+                        CrcSink crc = new CrcSink();
+                        LocalFileRecord.getRecord(source, record, cdOffset).outputUncompressedData(source, crc);
+                        if (crc.getValue() != record.getCrc32()) errors[i] = record.getName() + ": CRC-32 mismatch";
+                    } catch (Exception e) {
+                        errors[i] = record.getName() + ": " + e.getMessage();
+                    }
+                }
+            });
+            for (String error : errors) if (error != null) report.errors.add(error);
+        }
+    }
+
+    private static class CrcSink implements DataSink {
+        private final CRC32 crc = new CRC32();
+
+        @Override
+        public void consume(byte[] buf, int offset, int length) {
+            crc.update(buf, offset, length);
+        }
+
+        @Override
+        public void consume(ByteBuffer buf) {
+            if (buf.hasArray()) {
+                crc.update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+                buf.position(buf.limit());
+            } else {
+                byte[] chunk = new byte[Math.min(buf.remaining(), 65536)];
+                while (buf.hasRemaining()) {
+                    int length = Math.min(chunk.length, buf.remaining());
+                    buf.get(chunk, 0, length);
+                    crc.update(chunk, 0, length);
+                }
+            }
+        }
+
+        long getValue() {
+            return crc.getValue();
+        }
+    }
+}
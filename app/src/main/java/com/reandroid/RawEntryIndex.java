@@ -0,0 +1,71 @@
+package com.reandroid;
+
+import com.reandroid.archive.InputSource;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * The deflated entries of the split APK files a bundle was loaded from, by name. Most entries end up in the merged APK
+ * exactly as they were in their split, {@link SignedApkWriter} looks them up here to copy their compressed data instead
+ * of inflating and deflating it again. Entries the merge changed, like AndroidManifest.xml and resources.arsc, have a
+ * different CRC and are not found.
+ */
+public class RawEntryIndex implements Closeable {
+
+    private final List<SplitSlices> files = new ArrayList<>();
+    private final Map<String, List<SplitSlices.SliceInputSource>> entries = new HashMap<>();
+
+    /**
+     * Index the .apk files directly in dir, except output which is about to be overwritten. Files that can't be read in
+     * place are left out, their entries are just recompressed.
+     */
+    public static RawEntryIndex ofDirectory(File dir, File output) {
+        RawEntryIndex index = new RawEntryIndex();
+        File[] apks = dir == null ? null : dir.listFiles((d, name) -> name.endsWith(".apk"));
+        if (apks == null) return index;
+        for (File apk : apks) {
+            if (apk.equals(output)) continue;
+            try {
+                SplitSlices file = SplitSlices.openFile(apk);
+                index.files.add(file);
+                List<SplitSlices.SliceInputSource> sources = file.readSources();
+                if (sources == null) continue;
+                for (SplitSlices.SliceInputSource source : sources) {
+                    if (!source.isDeflated()) continue;
+                    List<SplitSlices.SliceInputSource> sameName = index.entries.get(source.getName());
+                    if (sameName == null) index.entries.put(source.getName(), sameName = new ArrayList<>(1));
+                    sameName.add(source);
+                }
+            } catch (IOException ignored) {}
+        }
+        return index;
+    }
+
+    /**
+     * @return the entry of a split with the same name and contents as source, or null if there is none
+     */
+    SplitSlices.SliceInputSource find(InputSource source) throws IOException {
+        if (source.getMethod() != ZipEntry.DEFLATED) return null;
+        // Check the name first, the CRC of a modified entry is only known after serializing it
+        List<SplitSlices.SliceInputSource> sameName = entries.get(source.getName());
+        if (sameName == null) return null;
+        long crc = source.getCrc();
+        long length = source.getLength();
+        for (SplitSlices.SliceInputSource candidate : sameName) {
+            if (candidate.getCrc() == crc && candidate.getLength() == length) return candidate;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (SplitSlices file : files) file.close();
+    }
+}
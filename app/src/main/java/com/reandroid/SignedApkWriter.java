@@ -0,0 +1,141 @@
+package com.reandroid;
+
+import com.abdurazaaqmohammed.utils.TaskScheduler;
+import com.android.apksig.DefaultApkSignerEngine;
+import com.android.apksig.StreamingApkSigner;
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.apk.MinSdkVersionException;
+import com.android.apksig.internal.util.SharedWorkerPool;
+import com.j256.simplezip.codec.FileDataEncoder;
+import com.j256.simplezip.codec.ParallelDeflatorFileDataEncoder;
+import com.reandroid.apk.ApkModule;
+import com.reandroid.archive.InputSource;
+import com.reandroid.archive.ZipEntryMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a merged module as a signed APK in one go, instead of writing it with {@link ApkModule#writeApk(File)} and
+ * signing a copy of that. V1 digests are computed while the entries are written and the signing block is appended at
+ * the end, so the only extra read is apksig digesting the output for v2/v3.
+ */
+public class SignedApkWriter {
+
+    private static final String ANDROID_MANIFEST = "AndroidManifest.xml";
+
+    /**
+     * @param rawEntries entries of the splits the module was merged from that can be copied without recompressing, or
+     *                   null
+     */
+    public static void write(ApkModule module, File output, DefaultApkSignerEngine.SignerConfig signerConfig, String createdBy, RawEntryIndex rawEntries)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+        ZipEntryMap zipEntryMap = module.getZipEntryMap();
+        zipEntryMap.autoSortApkFiles();
+        InputSource[] sources = zipEntryMap.toArray();
+
+        try (DefaultApkSignerEngine engine = new DefaultApkSignerEngine.Builder(Collections.singletonList(signerConfig), getMinSdkVersion(sources))
+                .setV1SigningEnabled(true)
+                .setV2SigningEnabled(true)
+                .setV3SigningEnabled(true)
+                .setCreatedBy(createdBy)
+                .build();
+             RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(0);
+            StreamingApkSigner signer = new StreamingApkSigner(engine, file, Deflater.DEFAULT_COMPRESSION);
+            // Deflating is the slowest part of writing, spread big entries like classes.dex over the cores
+            if (SharedWorkerPool.PARALLELISM > 1) signer.setDeflateStreamFactory((out, level) -> new EncoderOutputStream(
+                    new ParallelDeflatorFileDataEncoder(out, level, TaskScheduler.cpu(), ParallelDeflatorFileDataEncoder.DEFAULT_BLOCK_SIZE, SharedWorkerPool.PARALLELISM * 2)));
+            for (InputSource source : sources) {
+                String name = source.getAlias();
+                SplitSlices.SliceInputSource slice = getRawSource(source, rawEntries);
+                if (slice != null) {
+                    // Unchanged from its split, copy the compressed data as is
+                    try (InputStream is = slice.openRawStream()) {
+                        signer.outputDeflateCompressedEntry(name, slice.getCrc(), slice.getCompressedSize(), slice.getLength(), is);
+                    }
+                } else if (source.getMethod() == ZipEntry.STORED) {
+                    long crc = source.getCrc();
+                    long length = source.getLength();
+                    try (InputStream is = source.openStream()) {
+                        signer.outputStoredEntry(name, crc, length, is);
+                    }
+                } else try (InputStream is = source.openStream()) {
+                    signer.outputDeflatedEntry(name, is);
+                }
+            }
+            signer.finish();
+        }
+    }
+
+    /**
+     * Lets the signer write to a simplezip encoder, closing it closes the encoder.
+     */
+    private static class EncoderOutputStream extends OutputStream {
+
+        private final FileDataEncoder encoder;
+        private final byte[] singleByte = new byte[1];
+
+        EncoderOutputStream(FileDataEncoder encoder) {
+            this.encoder = encoder;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            singleByte[0] = (byte) b;
+            encoder.encode(singleByte, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            encoder.encode(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            encoder.close();
+        }
+    }
+
+    private static SplitSlices.SliceInputSource getRawSource(InputSource source, RawEntryIndex rawEntries) throws IOException {
+        if (source instanceof SplitSlices.SliceInputSource) {
+            // Loaded in place
+            SplitSlices.SliceInputSource slice = (SplitSlices.SliceInputSource) source;
+            return slice.isDeflated() ? slice : null;
+        }
+        return rawEntries == null ? null : rawEntries.find(source);
+    }
+
+    /**
+     * The engine picks v1 digest algorithms by minSdk, same as ApkSigner does when it reads it from the input APK.
+     */
+    private static int getMinSdkVersion(InputSource[] sources) throws IOException {
+        for (InputSource source : sources) {
+            if (!ANDROID_MANIFEST.equals(source.getAlias())) continue;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (InputStream is = source.openStream()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) bytes.write(buffer, 0, read);
+            }
+            try {
+                return ApkUtils.getMinSdkVersionFromBinaryAndroidManifest(ByteBuffer.wrap(bytes.toByteArray()));
+            } catch (MinSdkVersionException e) {
+                break;
+            }
+        }
+        return 1;
+    }
+}
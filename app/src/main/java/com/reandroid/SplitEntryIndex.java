@@ -0,0 +1,73 @@
+package com.reandroid;
+
+import com.reandroid.apk.ApkBundle;
+import com.reandroid.apk.ApkModule;
+import com.reandroid.archive.InputSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a loaded split contains, native libraries, dex files and asset sizes, taken from its entry map without reading
+ * any entry. Built once for the bundle so checks like the pairip one look at the actual lib/ entries of every split
+ * instead of guessing the ABI from the split's name.
+ */
+public class SplitEntryIndex {
+
+    private final String moduleName;
+    private final List<String> nativeLibraries = new ArrayList<>();
+    private int dexCount;
+    private long assetBytes;
+
+    private SplitEntryIndex(String moduleName) {
+        this.moduleName = moduleName;
+    }
+
+    public static List<SplitEntryIndex> of(ApkBundle bundle) throws IOException {
+        List<ApkModule> modules = bundle.getApkModuleList();
+        List<SplitEntryIndex> indexes = new ArrayList<>(modules.size());
+        for (ApkModule module : modules) indexes.add(of(module));
+        return indexes;
+    }
+
+    public static SplitEntryIndex of(ApkModule module) throws IOException {
+        SplitEntryIndex index = new SplitEntryIndex(module.getModuleName());
+        for (InputSource source : module.getZipEntryMap()) {
+            String name = source.getAlias();
+            if (name.startsWith("lib/") && name.endsWith(".so")) index.nativeLibraries.add(name);
+            else if (name.startsWith("classes") && name.endsWith(".dex") && name.indexOf('/') < 0) index.dexCount++;
+            else if (name.startsWith("assets/")) index.assetBytes += source.getLength();
+        }
+        return index;
+    }
+
+    public String getModuleName() {
+        return moduleName;
+    }
+
+    public int getNativeLibraryCount() {
+        return nativeLibraries.size();
+    }
+
+    /**
+     * @return the path of the native library with this file name for any ABI, or null if the split has none
+     */
+    public String findNativeLibrary(String fileName) {
+        for (String path : nativeLibraries) {
+            if (path.endsWith(fileName) && path.charAt(path.length() - fileName.length() - 1) == '/') return path;
+        }
+        return null;
+    }
+
+    public int getDexCount() {
+        return dexCount;
+    }
+
+    /**
+     * @return total uncompressed size of the entries under assets/
+     */
+    public long getAssetBytes() {
+        return assetBytes;
+    }
+}
@@ -0,0 +1,358 @@
+package com.reandroid;
+
+import android.content.res.Resources;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
+
+import com.abdurazaaqmohammed.AntiSplit.R;
+import com.abdurazaaqmohammed.AntiSplit.main.MainActivity;
+import com.j256.simplezip.IoUtils;
+import com.j256.simplezip.RewindableInputStream;
+import com.j256.simplezip.ZipFileInput;
+import com.j256.simplezip.format.CompressionMethod;
+import com.j256.simplezip.format.ZipCentralDirectoryEnd;
+import com.j256.simplezip.format.ZipCentralDirectoryFileEntry;
+import com.reandroid.apk.APKLogger;
+import com.reandroid.apk.ApkBundle;
+import com.reandroid.apk.ApkModule;
+import com.reandroid.archive.InputSource;
+import com.reandroid.archive.ZipEntryMap;
+import com.starry.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Loads the splits of a .apks/.xapk straight out of the bundle instead of extracting them to the cache dir first.
+ * Bundles store their splits uncompressed, so every split is just a window of the outer file and its own entries can
+ * be read in place (stored) or streamed through an Inflater (deflated) with positional reads on one FileChannel.
+ */
+public class SplitSlices implements Closeable {
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_END_SIZE = 4 + ZipCentralDirectoryEnd.MINIMUM_READ_SIZE;
+
+    private final FileChannel channel;
+
+    private SplitSlices(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return null if the Uri can't be opened as a seekable file, the splits have to be extracted then
+     */
+    public static SplitSlices open(Uri uri, MainActivity context) {
+        try {
+            String path = FileUtils.getPath(uri, context);
+            File file;
+            if (!TextUtils.isEmpty(path) && (file = new File(path)).canRead())
+                return new SplitSlices(new FileInputStream(file).getChannel());
+            ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd != null) return new SplitSlices(new ParcelFileDescriptor.AutoCloseInputStream(pfd).getChannel());
+        } catch (Exception ignored) {
+            // Not every provider hands out a seekable descriptor
+        }
+        return null;
+    }
+
+    /**
+     * Open a split APK file on its own instead of a bundle, for {@link RawEntryIndex}.
+     */
+    static SplitSlices openFile(File file) throws IOException {
+        return new SplitSlices(new FileInputStream(file).getChannel());
+    }
+
+    /**
+     * @return every entry of the zip that is the whole file, or null if it can't be read in place
+     */
+    List<SliceInputSource> readSources() throws IOException {
+        List<Entry> entries = readEntries(0, channel.size());
+        if (entries == null) return null;
+        List<SliceInputSource> sources = new ArrayList<>(entries.size());
+        for (Entry entry : entries) sources.add(new SliceInputSource(channel, entry));
+        return sources;
+    }
+
+    /**
+     * Add the name, CRC and size of every entry of the zip from its central directory to md, for {@link MergeCache}.
+     *
+     * @param skipped entries to leave out, like deselected splits
+     * @return false if the central directory can't be read in place
+     */
+    boolean digestEntries(MessageDigest md, List<String> skipped) throws IOException {
+        List<Entry> entries = readEntries(0, channel.size());
+        if (entries == null) return false;
+        ByteBuffer fields = ByteBuffer.allocate(16);
+        for (Entry entry : entries) {
+            if (skipped != null && skipped.contains(entry.name)) continue;
+            md.update(entry.name.getBytes(StandardCharsets.UTF_8));
+            fields.clear();
+            md.update(fields.putLong(entry.crc).putLong(entry.size).array());
+        }
+        return true;
+    }
+
+    /**
+     * Add every selected split to the bundle as a module backed by the bundle file.
+     *
+     * @param splits splits that were deselected, same as in {@link Merger#run(Uri, File, Uri, MainActivity, List, com.abdurazaaqmohammed.utils.SplitListing, boolean, boolean)}
+     * @return false if nothing was added, because a split is compressed inside the bundle or the bundle could not be indexed
+     */
+    public boolean load(ApkBundle bundle, List<String> splits, APKLogger logger, Resources rss) throws IOException {
+        List<Entry> outer = readEntries(0, channel.size());
+        if (outer == null) return false;
+        boolean checkSplits = splits != null && !splits.isEmpty();
+        List<Entry> selected = new ArrayList<>();
+        for (Entry split : outer) {
+            if (!split.name.endsWith(".apk") || (checkSplits && splits.contains(split.name))) continue;
+            // A deflated split has no random access, leave it to the extracting path
+            if (split.method != CompressionMethod.NONE.getValue()) return false;
+            selected.add(split);
+        }
+        if (selected.isEmpty()) return false;
+
+        List<ApkModule> modules = new ArrayList<>();
+        for (Entry split : selected) {
+            List<Entry> entries = readEntries(split.dataOffset, split.compressedSize);
+            if (entries == null) {
+                for (ApkModule module : modules) module.close();
+                return false;
+            }
+            ZipEntryMap zipEntryMap = new ZipEntryMap();
+            for (Entry entry : entries) zipEntryMap.add(new SliceInputSource(channel, entry));
+            modules.add(new ApkModule(toModuleName(split.name), zipEntryMap));
+        }
+
+        for (Entry split : outer) {
+            String name = split.name;
+            if (!name.endsWith(".apk")) logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.not_apk));
+            else if (checkSplits && splits.contains(name)) logger.logMessage(rss.getString(R.string.skipping) + name + rss.getString(R.string.unselected));
+            else logger.logMessage("Loaded " + name + " in place");
+        }
+        for (ApkModule module : modules) bundle.addModule(module);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static String toModuleName(String name) {
+        return name.substring(name.lastIndexOf('/') + 1, name.length() - 4);
+    }
+
+    /**
+     * Index the zip that occupies [base, base + length) of the channel through its central directory.
+     *
+     * @return null if it is not a zip we can read in place (zip64, truncated, ...)
+     */
+    private List<Entry> readEntries(long base, long length) throws IOException {
+        if (length < CENTRAL_DIRECTORY_END_SIZE) return null;
+        // The end record is at the very end, only followed by a comment of at most 64k
+        int tailLength = (int) Math.min(length, CENTRAL_DIRECTORY_END_SIZE + IoUtils.MAX_UNSIGNED_SHORT_VALUE);
+        byte[] tail = read(base + length - tailLength, tailLength);
+        int endOffset = ZipFileInput.findCentralDirectoryEnd(tail, tailLength);
+        if (endOffset < 0) return null;
+
+        ZipCentralDirectoryEnd end;
+        try {
+            end = ZipCentralDirectoryEnd.read(new RewindableInputStream(
+                    new ByteArrayInputStream(tail, endOffset, tailLength - endOffset), IoUtils.STANDARD_BUFFER_SIZE));
+        } catch (EOFException e) {
+            return null;
+        }
+        if (end == null || end.isNeedsZip64() || end.getNumRecordsTotal() == IoUtils.MAX_UNSIGNED_SHORT_VALUE) return null;
+        long directoryOffset = end.getDirectoryOffset() & IoUtils.MAX_UNSIGNED_INT_VALUE;
+        long directorySize = end.getDirectorySize() & IoUtils.MAX_UNSIGNED_INT_VALUE;
+        if (directoryOffset + directorySize > length || directorySize > Integer.MAX_VALUE) return null;
+
+        // Central directories are small enough to read in one go, per-byte reads on the channel would be a syscall each
+        RewindableInputStream directory = new RewindableInputStream(
+                new ByteArrayInputStream(read(base + directoryOffset, (int) directorySize)), IoUtils.STANDARD_BUFFER_SIZE);
+        int count = end.getNumRecordsTotal();
+        List<Entry> entries = new ArrayList<>(count);
+        byte[] localHeader = new byte[LOCAL_HEADER_SIZE];
+        for (int i = 0; i < count; i++) {
+            ZipCentralDirectoryFileEntry fileEntry = ZipCentralDirectoryFileEntry.read(directory);
+            if (fileEntry == null) return null;
+            long headerOffset = fileEntry.getRelativeOffsetOfLocalHeader() & IoUtils.MAX_UNSIGNED_INT_VALUE;
+            long compressedSize = fileEntry.getCompressedSize() & IoUtils.MAX_UNSIGNED_INT_VALUE;
+            if (headerOffset == IoUtils.MAX_UNSIGNED_INT_VALUE || compressedSize == IoUtils.MAX_UNSIGNED_INT_VALUE
+                    || headerOffset + LOCAL_HEADER_SIZE > length) return null;
+
+            // The local header can have a different extra field length than the central directory one
+            readFully(base + headerOffset, localHeader);
+            if (readInt(localHeader, 0) != 0x04034b50) return null;
+            long dataOffset = headerOffset + LOCAL_HEADER_SIZE + readShort(localHeader, 26) + readShort(localHeader, 28);
+            if (dataOffset + compressedSize > length) return null;
+
+            int method = fileEntry.getCompressionMethod();
+            if (method != CompressionMethod.NONE.getValue() && method != CompressionMethod.DEFLATED.getValue()) return null;
+            entries.add(new Entry(fileEntry.getFileName(), method, fileEntry.getCrc32(), compressedSize,
+                    fileEntry.getUncompressedSize() & IoUtils.MAX_UNSIGNED_INT_VALUE, base + dataOffset));
+        }
+        return entries;
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        readFully(position, bytes);
+        return bytes;
+    }
+
+    private void readFully(long position, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of bundle at " + position);
+        }
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | (readShort(bytes, offset + 2) << 16);
+    }
+
+    private static class Entry {
+        final String name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        /** Absolute position of the file data in the bundle */
+        final long dataOffset;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.dataOffset = dataOffset;
+        }
+    }
+
+    /**
+     * An entry of a split, read from its window of the bundle. CRC and size come from the central directory so
+     * nothing has to be read to compute them when the merged APK is written.
+     */
+    static class SliceInputSource extends InputSource {
+        private final FileChannel channel;
+        private final Entry entry;
+
+        SliceInputSource(FileChannel channel, Entry entry) {
+            super(entry.name);
+            this.channel = channel;
+            this.entry = entry;
+            setMethod(entry.method);
+        }
+
+        @Override
+        public long getLength() {
+            return entry.size;
+        }
+
+        @Override
+        public long getCrc() {
+            return entry.crc;
+        }
+
+        boolean isDeflated() {
+            return entry.method == CompressionMethod.DEFLATED.getValue();
+        }
+
+        long getCompressedSize() {
+            return entry.compressedSize;
+        }
+
+        /**
+         * @return the data as stored in the split, so a deflated entry can be copied without recompressing it
+         */
+        InputStream openRawStream() {
+            return new SliceInputStream(channel, entry.dataOffset, entry.compressedSize, false);
+        }
+
+        @Override
+        public InputStream openStream() {
+            if (entry.method == CompressionMethod.NONE.getValue())
+                return new SliceInputStream(channel, entry.dataOffset, entry.compressedSize, false);
+            return new InflaterInputStream(new SliceInputStream(channel, entry.dataOffset, entry.compressedSize, true),
+                    new Inflater(true), IoUtils.STANDARD_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+    }
+
+    /**
+     * Positional reads over a window of the channel, so any number of these can be open at once without sharing a
+     * file pointer.
+     */
+    private static class SliceInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+        private final byte[] singleByteBuffer = new byte[1];
+        private long position;
+        /** A nowrap Inflater may want one byte past the deflated data, same as java.util.zip.ZipFile feeds it */
+        private boolean dummyByte;
+
+        SliceInputStream(FileChannel channel, long offset, long length, boolean dummyByte) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+            this.dummyByte = dummyByte;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(singleByteBuffer, 0, 1) < 0 ? -1 : singleByteBuffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (position >= end) {
+                if (!dummyByte) return -1;
+                dummyByte = false;
+                b[off] = 0;
+                return 1;
+            }
+            int num = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (num < 0) return -1;
+            position += num;
+            return num;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+// JVM-only harness for the zip, signing and verification code, which has no real Android dependencies.
+// The app's sources are compiled here as they are, against the stand-ins in src/main/java/android.
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "android/**",
+                "com/android/apksig/**",
+                "com/j256/simplezip/**",
+                "com/aefyr/pseudoapksigner/**",
+                "com/abdurazaaqmohammed/utils/BufferPool.java",
+                "com/abdurazaaqmohammed/utils/FileUtils.java",
+                "com/abdurazaaqmohammed/utils/LegacyUtils.java",
+                "com/abdurazaaqmohammed/utils/StreamBackups.java",
+                "org/apache/commons/io/FilenameUtils.java"
+            )
+            // Copies assets out of a Context, not used by the signer itself
+            exclude("com/aefyr/pseudoapksigner/IOUtils.java")
+            // The app's own android.support classes need the real SDK, only the stand-ins are wanted
+            exclude("android/support/**")
+        }
+    }
+    named("jmh") {
+        // testkey.pk8 and testkey.past for PseudoApkSigner
+        resources {
+            srcDir("../app/src/main/assets")
+            include("testkey.*")
+        }
+    }
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+jmh {
+    jmhVersion = "1.37"
+    fork = 1
+    warmupIterations = 2
+    iterations = 5
+    // The 1 GB APKs need the heap for the verity tree and the digests of every entry
+    jvmArgs = listOf("-Xmx3g")
+    // e.g. ./gradlew :benchmark:jmh -PapkSizes=10,100 to skip the 1 GB runs
+    (findProperty("apkSizes") as String?)?.let { benchmarkParameters.put("sizeMb", project.objects.listProperty<String>().value(it.split(','))) }
+}
@@ -0,0 +1,82 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.apk.ApkSigningBlockUtils;
+import com.android.apksig.internal.apk.ContentDigestAlgorithm;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
+import com.android.apksig.zip.ZipFormatException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.DigestException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The v2/v3 content digest of an APK, the part of signing and verifying that reads the whole file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentDigestBenchmark {
+
+    public enum Executor {
+        SINGLE_THREADED(RunnablesExecutor.SINGLE_THREADED),
+        MULTI_THREADED(RunnablesExecutor.MULTI_THREADED);
+
+        final RunnablesExecutor executor;
+
+        Executor(RunnablesExecutor executor) {
+            this.executor = executor;
+        }
+    }
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    @Param({"SINGLE_THREADED", "MULTI_THREADED"})
+    public Executor executor;
+
+    private RandomAccessFile file;
+    private DataSource beforeCentralDir;
+    private DataSource centralDir;
+    private DataSource eocd;
+
+    @Setup
+    public void setUp() throws IOException, ZipFormatException {
+        file = new RandomAccessFile(SyntheticApk.get(sizeMb, SyntheticApk.Methods.MIXED), "r");
+        DataSource apk = DataSources.asDataSource(file);
+        ApkUtils.ZipSections sections = ApkUtils.findZipSections(apk);
+        long centralDirOffset = sections.getZipCentralDirectoryOffset();
+        long eocdOffset = sections.getZipEndOfCentralDirectoryOffset();
+        beforeCentralDir = apk.slice(0, centralDirOffset);
+        centralDir = apk.slice(centralDirOffset, sections.getZipCentralDirectorySizeBytes());
+        eocd = apk.slice(eocdOffset, apk.size() - eocdOffset);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        file.close();
+    }
+
+    @Benchmark
+    public Map<ContentDigestAlgorithm, byte[]> computeContentDigests()
+            throws IOException, NoSuchAlgorithmException, DigestException {
+        return ApkSigningBlockUtils.computeContentDigests(executor.executor,
+                Collections.singleton(ContentDigestAlgorithm.CHUNKED_SHA256), beforeCentralDir, centralDir, eocd);
+    }
+}
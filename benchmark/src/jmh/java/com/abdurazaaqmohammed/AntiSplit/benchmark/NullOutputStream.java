@@ -0,0 +1,17 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import java.io.OutputStream;
+
+/**
+ * Throws away what is written so the benchmarks measure the code and not the disk.
+ */
+class NullOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+}
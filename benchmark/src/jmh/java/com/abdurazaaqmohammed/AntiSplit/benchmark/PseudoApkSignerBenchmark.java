@@ -0,0 +1,44 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.aefyr.pseudoapksigner.PseudoApkSigner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing with the fallback v1-only signer the app uses on old Android versions, with the app's own test key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PseudoApkSignerBenchmark {
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    private File apk;
+    private File template;
+    private File privateKey;
+
+    @Setup
+    public void setUp() throws IOException {
+        apk = SyntheticApk.get(sizeMb, SyntheticApk.Methods.MIXED);
+        template = SyntheticApk.getResourceFile("testkey.past");
+        privateKey = SyntheticApk.getResourceFile("testkey.pk8");
+    }
+
+    @Benchmark
+    public void sign() throws Exception {
+        PseudoApkSigner.sign(apk, new NullOutputStream(), template, privateKey);
+    }
+}
@@ -0,0 +1,181 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * APKs for the benchmarks, laid out like a real app: a manifest, resources.arsc, dex files, native libraries, drawables,
+ * layouts and assets. The contents are generated, from a compressible pool that deflates about as well as dex and from
+ * a random pool that does not deflate at all, like PNGs. sizeMb is the total size of the entries before compression.
+ *
+ * Every APK is generated once and kept in the temp dir, a 1 GB one takes a while.
+ */
+public class SyntheticApk {
+
+    public enum Methods {
+        /** DEFLATED or STORED depending on the entry, the way aapt2 writes them */
+        MIXED,
+        STORED,
+        DEFLATED
+    }
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        /** The contents are the bytes at offset to offset + size of this */
+        public final byte[] pool;
+        public final int offset;
+        public final int size;
+
+        Entry(String name, int method, byte[] pool, int offset, int size) {
+            this.name = name;
+            this.method = method;
+            this.pool = pool;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public long getCrc() {
+            CRC32 crc = new CRC32();
+            crc.update(pool, offset, size);
+            return crc.getValue();
+        }
+    }
+
+    // Bump when the layout or contents change so old cached APKs are not reused
+    private static final int VERSION = 1;
+    private static final int POOL_SIZE = 16 * 1024 * 1024;
+    private static final int MB = 1024 * 1024;
+
+    private static byte[] compressiblePool;
+    private static byte[] randomPool;
+
+    public static List<Entry> entries(int sizeMb, Methods methods) {
+        Random random = new Random(sizeMb);
+        byte[] compressible = getCompressiblePool();
+        byte[] incompressible = getRandomPool();
+        long total = (long) sizeMb * MB;
+        List<Entry> entries = new ArrayList<>();
+        Layout layout = new Layout(entries, random, methods);
+
+        layout.add("AndroidManifest.xml", ZipEntry.DEFLATED, compressible, 8 * 1024);
+        layout.add("resources.arsc", ZipEntry.STORED, compressible, (int) Math.min(total / 20, 8 * MB));
+        layout.addAll("classes%s.dex", ZipEntry.DEFLATED, compressible, total * 35 / 100, 4 * MB, 8 * MB);
+        layout.addAll("lib/arm64-v8a/lib%s.so", ZipEntry.STORED, compressible, total * 25 / 100, MB, 4 * MB);
+        layout.addAll("res/drawable-xxhdpi/img%s.png", ZipEntry.STORED, incompressible, total * 20 / 100, 2 * 1024, 48 * 1024);
+        layout.addAll("res/layout/layout%s.xml", ZipEntry.DEFLATED, compressible, total * 5 / 100, 1024, 8 * 1024);
+        layout.addAll("assets/asset%s.bin", ZipEntry.DEFLATED, incompressible, total - layout.size, 64 * 1024, MB);
+        return entries;
+    }
+
+    public static synchronized File get(int sizeMb, Methods methods) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "antisplit-benchmark");
+        File apk = new File(dir, methods.name().toLowerCase() + '-' + sizeMb + "mb-v" + VERSION + ".apk");
+        if (apk.exists()) return apk;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Could not create " + dir);
+
+        File tmp = new File(dir, apk.getName() + ".tmp");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmp))) {
+            for (Entry entry : entries(sizeMb, methods)) {
+                ZipEntry zipEntry = new ZipEntry(entry.name);
+                zipEntry.setMethod(entry.method);
+                if (entry.method == ZipEntry.STORED) {
+                    zipEntry.setSize(entry.size);
+                    zipEntry.setCompressedSize(entry.size);
+                    zipEntry.setCrc(entry.getCrc());
+                }
+                zos.putNextEntry(zipEntry);
+                zos.write(entry.pool, entry.offset, entry.size);
+                zos.closeEntry();
+            }
+        }
+        if (!tmp.renameTo(apk)) throw new IOException("Could not rename " + tmp + " to " + apk);
+        return apk;
+    }
+
+    /**
+     * Copy a resource of the benchmarks to a temp file, for the APIs that want a File.
+     */
+    public static File getResourceFile(String name) throws IOException {
+        File file = File.createTempFile("antisplit-benchmark", name);
+        file.deleteOnExit();
+        try (InputStream is = SyntheticApk.class.getResourceAsStream('/' + name);
+             FileOutputStream os = new FileOutputStream(file)) {
+            if (is == null) throw new IOException("Missing resource " + name);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) os.write(buffer, 0, read);
+        }
+        return file;
+    }
+
+    private static synchronized byte[] getCompressiblePool() {
+        if (compressiblePool == null) {
+            // Short tokens from a small vocabulary with some noise in between, deflates to about a third like dex
+            Random random = new Random(1);
+            byte[][] tokens = new byte[256][];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = new byte[4 + random.nextInt(20)];
+                random.nextBytes(tokens[i]);
+            }
+            byte[] pool = new byte[POOL_SIZE];
+            int position = 0;
+            while (position < pool.length) {
+                // Skewed so some tokens are much more common than others
+                byte[] token = tokens[(int) (tokens.length * Math.pow(random.nextDouble(), 3))];
+                int num = Math.min(token.length, pool.length - position);
+                System.arraycopy(token, 0, pool, position, num);
+                position += num;
+                if (position < pool.length && random.nextBoolean()) pool[position++] = (byte) random.nextInt();
+            }
+            compressiblePool = pool;
+        }
+        return compressiblePool;
+    }
+
+    private static synchronized byte[] getRandomPool() {
+        if (randomPool == null) {
+            randomPool = new byte[POOL_SIZE];
+            new Random(2).nextBytes(randomPool);
+        }
+        return randomPool;
+    }
+
+    private static class Layout {
+        private final List<Entry> entries;
+        private final Random random;
+        private final Methods methods;
+        long size;
+
+        Layout(List<Entry> entries, Random random, Methods methods) {
+            this.entries = entries;
+            this.random = random;
+            this.methods = methods;
+        }
+
+        void add(String name, int method, byte[] pool, int size) {
+            if (methods == Methods.STORED) method = ZipEntry.STORED;
+            else if (methods == Methods.DEFLATED) method = ZipEntry.DEFLATED;
+            // Different slices of the pool so entries are not all the same
+            entries.add(new Entry(name, method, pool, random.nextInt(pool.length - size + 1), size));
+            this.size += size;
+        }
+
+        void addAll(String nameFormat, int method, byte[] pool, long total, int minSize, int maxSize) {
+            for (int i = 1; total > 0; i++) {
+                int size = (int) Math.min(total, minSize + random.nextInt(maxSize - minSize + 1));
+                // classes.dex, classes2.dex, ...
+                add(String.format(nameFormat, i == 1 && nameFormat.startsWith("classes") ? "" : String.valueOf(i)), method, pool, size);
+                total -= size;
+            }
+        }
+    }
+}
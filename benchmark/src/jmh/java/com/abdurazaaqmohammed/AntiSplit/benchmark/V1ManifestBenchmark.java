@@ -0,0 +1,49 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.android.apksig.apk.ApkFormatException;
+import com.android.apksig.internal.apk.v1.DigestAlgorithm;
+import com.android.apksig.internal.apk.v1.V1SchemeSigner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building META-INF/MANIFEST.MF from the digests of every entry, which grows with the number of entries rather than
+ * their size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class V1ManifestBenchmark {
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    private final Map<String, byte[]> digests = new HashMap<>();
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for (SyntheticApk.Entry entry : SyntheticApk.entries(sizeMb, SyntheticApk.Methods.MIXED)) {
+            md.update(entry.pool, entry.offset, entry.size);
+            digests.put(entry.name, md.digest());
+        }
+    }
+
+    @Benchmark
+    public V1SchemeSigner.OutputManifestFile generateManifestFile() throws ApkFormatException {
+        return V1SchemeSigner.generateManifestFile(DigestAlgorithm.SHA256, digests, null);
+    }
+}
@@ -0,0 +1,53 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.android.apksig.internal.util.VerityTreeBuilder;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The verity tree root hash of a whole APK, as the v4 signature and the verity content digest need.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VerityTreeBenchmark {
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    private RandomAccessFile file;
+    private DataSource apk;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = new RandomAccessFile(SyntheticApk.get(sizeMb, SyntheticApk.Methods.MIXED), "r");
+        apk = DataSources.asDataSource(file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        file.close();
+    }
+
+    @Benchmark
+    public byte[] generateVerityTreeRootHash() throws IOException, NoSuchAlgorithmException {
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(new byte[8])) {
+            return builder.generateVerityTreeRootHash(apk);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.j256.simplezip.ZipFileInput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading every entry of an APK front to back, decoded, like extracting a bundle does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ZipFileInputBenchmark {
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    @Param({"STORED", "DEFLATED"})
+    public SyntheticApk.Methods methods;
+
+    private File apk;
+
+    @Setup
+    public void setUp() throws IOException {
+        apk = SyntheticApk.get(sizeMb, methods);
+    }
+
+    @Benchmark
+    public long readAllEntries() throws IOException {
+        long total = 0;
+        OutputStream sink = new NullOutputStream();
+        try (ZipFileInput input = new ZipFileInput(apk)) {
+            while (input.readFileHeader() != null) total += input.readFileData(sink);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,69 @@
+package com.abdurazaaqmohammed.AntiSplit.benchmark;
+
+import com.j256.simplezip.ZipFileOutput;
+import com.j256.simplezip.format.CompressionMethod;
+import com.j256.simplezip.format.GeneralPurposeFlag;
+import com.j256.simplezip.format.ZipFileHeader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writing the entries of an APK, encoded, to a stream that drops them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ZipFileOutputBenchmark {
+
+    @Param({"10", "100", "1024"})
+    public int sizeMb;
+
+    @Param({"STORED", "DEFLATED"})
+    public SyntheticApk.Methods methods;
+
+    private List<SyntheticApk.Entry> entries;
+    private long[] crcs;
+
+    @Setup
+    public void setUp() {
+        entries = SyntheticApk.entries(sizeMb, methods);
+        // A stored entry's header needs its CRC up front, it is known before writing in the app too
+        crcs = new long[entries.size()];
+        for (int i = 0; i < crcs.length; i++) crcs[i] = entries.get(i).getCrc();
+    }
+
+    @Benchmark
+    public long writeAllEntries() throws IOException {
+        try (ZipFileOutput output = new ZipFileOutput(new NullOutputStream())) {
+            for (int i = 0; i < crcs.length; i++) {
+                SyntheticApk.Entry entry = entries.get(i);
+                ZipFileHeader.Builder header = ZipFileHeader.builder().withFileName(entry.name);
+                if (entry.method == ZipEntry.STORED) {
+                    header.withCompressionMethod(CompressionMethod.STORED)
+                            .withCrc32(crcs[i])
+                            .withCompressedSize(entry.size)
+                            .withUncompressedSize(entry.size);
+                } else {
+                    header.withCompressionMethod(CompressionMethod.DEFLATED)
+                            .withGeneralPurposeFlags(GeneralPurposeFlag.DATA_DESCRIPTOR);
+                }
+                output.writeFileHeader(header.build());
+                output.writeFileDataPart(entry.pool, entry.offset, entry.size);
+                output.finishFileData();
+            }
+            return output.finishZip();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for the framework class, the benchmarks never create one.
+ */
+public abstract class Context {
+
+    public abstract File getFilesDir();
+
+    public abstract AssetManager getAssets();
+
+    public abstract int checkSelfPermission(String permission);
+}
@@ -0,0 +1,10 @@
+package android.content.pm;
+
+/**
+ * JVM stand-in for the framework class.
+ */
+public abstract class PackageManager {
+
+    public static final int PERMISSION_GRANTED = 0;
+    public static final int PERMISSION_DENIED = -1;
+}
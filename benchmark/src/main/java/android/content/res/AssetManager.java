@@ -0,0 +1,12 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * JVM stand-in for the framework class.
+ */
+public abstract class AssetManager {
+
+    public abstract InputStream open(String fileName) throws IOException;
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * JVM stand-in for the framework class, the benchmarks run as the newest Android would.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = Integer.getInteger("android.sdk", 35);
+    }
+
+    public static class VERSION_CODES {
+        public static final int GINGERBREAD = 9;
+        public static final int KITKAT = 19;
+        public static final int N = 24;
+        public static final int O = 26;
+        public static final int P = 28;
+    }
+}
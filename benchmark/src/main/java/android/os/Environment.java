@@ -0,0 +1,17 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for the framework class.
+ */
+public class Environment {
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    public static boolean isExternalStorageManager() {
+        return true;
+    }
+}
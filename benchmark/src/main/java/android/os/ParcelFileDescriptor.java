@@ -0,0 +1,35 @@
+package android.os;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * JVM stand-in for the framework class.
+ */
+public class ParcelFileDescriptor {
+
+    private final FileDescriptor mFd;
+
+    public ParcelFileDescriptor(FileDescriptor fd) {
+        mFd = fd;
+    }
+
+    public FileDescriptor getFileDescriptor() {
+        return mFd;
+    }
+
+    public static class AutoCloseInputStream extends FileInputStream {
+
+        public AutoCloseInputStream(ParcelFileDescriptor pfd) {
+            super(pfd.getFileDescriptor());
+        }
+    }
+
+    public static class AutoCloseOutputStream extends FileOutputStream {
+
+        public AutoCloseOutputStream(ParcelFileDescriptor pfd) {
+            super(pfd.getFileDescriptor());
+        }
+    }
+}
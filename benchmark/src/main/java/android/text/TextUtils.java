@@ -0,0 +1,11 @@
+package android.text;
+
+/**
+ * JVM stand-in for the framework class.
+ */
+public class TextUtils {
+
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+}
@@ -1,5 +1,6 @@
 // Top-level build file where you can add configuration options common to all sub-projects/modules.
 plugins {
     id("com.android.application") version "8.7.0-alpha03" apply false
+    id("me.champeau.jmh") version "0.7.2" apply false
 }
 
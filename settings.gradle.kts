@@ -15,3 +15,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "AntiSplit M"
 include(":app")
+include(":benchmark")